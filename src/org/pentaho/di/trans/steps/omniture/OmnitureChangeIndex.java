@@ -0,0 +1,234 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Digest index of the rows a previous run put out, to only put out the rows that are new or
+ * changed since.
+ *
+ * Every row is reduced to a 64 bit hash of its elements and dates, the key, and a 64 bit hash
+ * of its metric values, the digest. The index of the previous run is loaded into an open
+ * addressing table of both. The rows of the current run go into a new index, which is written
+ * once the run read all reports and replaces the file only once the transformation finished
+ * without errors, so that a failed run compares against the same rows again.
+ *
+ * The new index only holds the rows of the current run, so the file doesn't grow with every
+ * run. Rows of dates that are no longer fetched drop out, rows of overlapping date ranges are
+ * compared.
+ */
+public class OmnitureChangeIndex {
+
+  /** operation of a row that wasn't put out before */
+  public static final String INSERT = "I";
+  /** operation of a row whose metrics changed */
+  public static final String UPDATE = "U";
+  /** hash to start a key or digest with */
+  public static final long SEED = 0xcbf29ce484222325L;
+
+  private static final int MAGIC = 0x4F434458;
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final File file;
+  private long[] keys;
+  private long[] digests;
+  private long[] newKeys = new long[1024];
+  private long[] newDigests = new long[1024];
+  private int newSize;
+  private boolean written;
+
+  /**
+   * Loads the index of the previous run, if any.
+   */
+  public OmnitureChangeIndex( File file ) throws IOException {
+    this.file = file;
+    load();
+  }
+
+  /**
+   * @return the value hashed on top of the given hash
+   */
+  public static long hash( long hash, String value ) {
+    if ( value == null ) {
+      return hash( hash, -1L );
+    }
+    hash = hash( hash, value.length() );
+    for ( int i = 0; i < value.length(); i++ ) {
+      hash = ( hash ^ value.charAt( i ) ) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * @return the value hashed on top of the given hash
+   */
+  public static long hash( long hash, long value ) {
+    for ( int i = 0; i < 8; i++ ) {
+      hash = ( hash ^ ( value & 0xff ) ) * FNV_PRIME;
+      value >>>= 8;
+    }
+    return hash;
+  }
+
+  /**
+   * Compares a row to the previous run and records it for the next one.
+   *
+   * @return {@link #INSERT} for a new row, {@link #UPDATE} for a changed row, null for an unchanged row
+   */
+  public String check( long key, long digest ) {
+    key = nonZero( key );
+    if ( newSize == newKeys.length ) {
+      newKeys = grow( newKeys );
+      newDigests = grow( newDigests );
+    }
+    newKeys[newSize] = key;
+    newDigests[newSize] = digest;
+    newSize++;
+
+    int slot = find( key );
+    if ( slot < 0 || keys[slot] == 0L ) {
+      return INSERT;
+    }
+    return digests[slot] == digest ? null : UPDATE;
+  }
+
+  /**
+   * Writes the rows checked in this run next to the index of the previous run, which stays in place
+   * until {@link #commit()}.
+   */
+  public void write() throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if ( parent != null && !parent.isDirectory() && !parent.mkdirs() ) {
+      throw new IOException( "Unable to create directory " + parent );
+    }
+    File temp = tempFile();
+    DataOutputStream out =
+      new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ), IO_BUFFER_SIZE ) );
+    try {
+      out.writeInt( MAGIC );
+      out.writeInt( newSize );
+      for ( int i = 0; i < newSize; i++ ) {
+        out.writeLong( newKeys[i] );
+        out.writeLong( newDigests[i] );
+      }
+    } finally {
+      out.close();
+    }
+    written = true;
+  }
+
+  /**
+   * @return true if the rows checked in this run were written and wait to be committed
+   */
+  public boolean isWritten() {
+    return written;
+  }
+
+  /**
+   * Replaces the index of the previous run with the one written in this run, once the rows put out are delivered.
+   */
+  public void commit() throws IOException {
+    File temp = tempFile();
+    if ( file.exists() && !file.delete() || !temp.renameTo( file ) ) {
+      throw new IOException( "Unable to replace " + file );
+    }
+    written = false;
+  }
+
+  /**
+   * Drops the index written in this run, the index of the previous run stays in place.
+   */
+  public void discard() {
+    tempFile().delete();
+    written = false;
+  }
+
+  private File tempFile() {
+    return new File( file.getPath() + ".tmp" );
+  }
+
+  private void load() throws IOException {
+    if ( !file.exists() ) {
+      keys = new long[0];
+      digests = new long[0];
+      return;
+    }
+    DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), IO_BUFFER_SIZE ) );
+    try {
+      if ( in.readInt() != MAGIC ) {
+        throw new IOException( file + " is not a change index" );
+      }
+      int size = in.readInt();
+      // at most half full
+      int capacity = Integer.highestOneBit( Math.max( 2, size ) * 2 - 1 ) << 1;
+      keys = new long[capacity];
+      digests = new long[capacity];
+      for ( int i = 0; i < size; i++ ) {
+        long key = nonZero( in.readLong() );
+        int slot = find( key );
+        keys[slot] = key;
+        digests[slot] = in.readLong();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return the slot holding the key or the empty slot it goes into, -1 for an empty table
+   */
+  private int find( long key ) {
+    if ( keys.length == 0 ) {
+      return -1;
+    }
+    int mask = keys.length - 1;
+    int slot = (int) ( key ^ ( key >>> 32 ) ) & mask;
+    while ( keys[slot] != 0L && keys[slot] != key ) {
+      slot = ( slot + 1 ) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * 0 marks an empty slot, a key that hashed to it shares the slot of key 1.
+   */
+  private static long nonZero( long key ) {
+    return key == 0L ? 1L : key;
+  }
+
+  private static long[] grow( long[] array ) {
+    long[] grown = new long[array.length * 2];
+    System.arraycopy( array, 0, grown, 0, array.length );
+    return grown;
+  }
+}
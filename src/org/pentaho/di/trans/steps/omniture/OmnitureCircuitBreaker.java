@@ -0,0 +1,210 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JVM-wide circuit breaker for the API calls made to one endpoint for one company.
+ *
+ * The breaker keeps the outcome of the last calls. Once enough of them failed it opens, and
+ * calls either fail right away or wait, as the caller chooses, instead of piling more load on a
+ * degraded API. After a pause a single probe call is let through: if it succeeds the breaker
+ * closes again, if it fails the breaker stays open for another pause. Every call holds a permit
+ * of the generation it was let through in, so that calls let through before the breaker opened
+ * and finishing late neither decide the probe nor count in the window again.
+ *
+ * Only failures to reach the API count, an error the API answered with means it is up. Callers
+ * wait on a lock condition rather than a monitor, which doesn't pin the carrier of a virtual thread.
+ */
+public class OmnitureCircuitBreaker {
+
+  /** calls the error rate is computed over */
+  private static final int WINDOW = 20;
+  /** fewest calls in the window before the breaker may open */
+  private static final int MIN_CALLS = 10;
+  /** milliseconds the breaker stays open before it lets a probe through */
+  private static final long OPEN_MILLIS = 30000L;
+
+  private static final ConcurrentMap<String, OmnitureCircuitBreaker> BREAKERS =
+    new ConcurrentHashMap<String, OmnitureCircuitBreaker>();
+
+  private enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition decided = lock.newCondition();
+  private final boolean[] failures = new boolean[WINDOW];
+  private int calls;
+  private int next;
+  private State state = State.CLOSED;
+  private long openUntil;
+  /** incremented every time the breaker opens */
+  private long generation;
+
+  OmnitureCircuitBreaker( String name ) {
+    this.name = name;
+  }
+
+  /**
+   * @return the breaker shared by all calls to the endpoint for the company
+   */
+  public static OmnitureCircuitBreaker forCompany( String endpoint, String company ) {
+    String key = endpoint + '/' + company;
+    OmnitureCircuitBreaker breaker = BREAKERS.get( key );
+    if ( breaker == null ) {
+      OmnitureCircuitBreaker created = new OmnitureCircuitBreaker( key );
+      breaker = BREAKERS.putIfAbsent( key, created );
+      if ( breaker == null ) {
+        breaker = created;
+      }
+    }
+    return breaker;
+  }
+
+  /**
+   * Lets a call through, to be handed back with its outcome.
+   */
+  public static final class Permit {
+    private final long generation;
+    private final boolean probe;
+
+    Permit( long generation, boolean probe ) {
+      this.generation = generation;
+      this.probe = probe;
+    }
+  }
+
+  /**
+   * Asks to make a call. Every call that is let through must be followed by
+   * {@link #record(Permit, boolean, int)}.
+   *
+   * @return the permit of the call
+   *
+   * @param wait
+   *          true to wait while the breaker is open, false to fail right away
+   * @throws IOException
+   *           if the breaker is open and the caller doesn't wait
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  public Permit acquire( boolean wait ) throws IOException, InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while ( true ) {
+        if ( state == State.CLOSED ) {
+          return new Permit( generation, false );
+        }
+        long now = System.currentTimeMillis();
+        if ( state == State.OPEN && now >= openUntil ) {
+          // this call is the probe
+          state = State.HALF_OPEN;
+          return new Permit( generation, true );
+        }
+        if ( !wait ) {
+          throw new IOException( "Calls to " + name + " are suspended after too many failures" );
+        }
+        // a probe in flight decides soon, otherwise wait for the end of the pause
+        decided.await( state == State.OPEN ? Math.max( 1, openUntil - now ) : OPEN_MILLIS, TimeUnit.MILLISECONDS );
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records the outcome of a call that was let through.
+   *
+   * @param permit
+   *          the permit the call was let through with
+   * @param failed
+   *          true if the API couldn't be reached
+   * @param errorRate
+   *          the percentage of failed calls the caller opens the breaker at
+   */
+  public void record( Permit permit, boolean failed, int errorRate ) {
+    lock.lock();
+    try {
+      if ( permit.probe ) {
+        // only the probe decides a half-open breaker
+        if ( failed ) {
+          open();
+        } else {
+          state = State.CLOSED;
+          calls = 0;
+          next = 0;
+        }
+        decided.signalAll();
+        return;
+      }
+      if ( permit.generation != generation || state != State.CLOSED ) {
+        // let through before the breaker opened, its outcome is already past
+        return;
+      }
+      failures[next] = failed;
+      next = ( next + 1 ) % WINDOW;
+      calls = Math.min( WINDOW, calls + 1 );
+      if ( failed && calls >= MIN_CALLS && failureCount() * 100 >= errorRate * calls ) {
+        open();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if calls are currently held back
+   */
+  public boolean isOpen() {
+    lock.lock();
+    try {
+      return state != State.CLOSED;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void open() {
+    generation++;
+    state = State.OPEN;
+    openUntil = System.currentTimeMillis() + OPEN_MILLIS;
+  }
+
+  private int failureCount() {
+    int count = 0;
+    for ( int i = 0; i < calls; i++ ) {
+      if ( failures[i] ) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,97 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JVM-wide count of the reports in flight per Omniture company, so that all steps fetching for
+ * the same company together stay below the number of reports it may have queued.
+ *
+ * Every caller passes its own limit and waits while the company has that many reports in flight,
+ * whoever queued them. Callers wait on a lock condition rather than a monitor, which doesn't pin
+ * the carrier of a virtual thread.
+ */
+public final class OmnitureCompanyLimiter {
+
+  private static final Map<String, Integer> IN_FLIGHT = new HashMap<String, Integer>();
+  private static final ReentrantLock LOCK = new ReentrantLock();
+  private static final Condition RELEASED = LOCK.newCondition();
+
+  private OmnitureCompanyLimiter() {
+  }
+
+  /**
+   * @return the company of an account given as user:company
+   */
+  public static String companyOf( String account ) {
+    return account == null ? "" : account.substring( account.lastIndexOf( ':' ) + 1 );
+  }
+
+  /**
+   * Waits until the company has fewer than the given number of reports in flight and takes a slot.
+   *
+   * @param limit
+   *          the most reports in flight, 0 for no limit
+   */
+  public static void acquire( String company, int limit ) throws InterruptedException {
+    LOCK.lockInterruptibly();
+    try {
+      if ( limit > 0 ) {
+        while ( count( company ) >= limit ) {
+          RELEASED.await();
+        }
+      }
+      IN_FLIGHT.put( company, count( company ) + 1 );
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Gives back a slot taken with {@link #acquire(String, int)}.
+   */
+  public static void release( String company ) {
+    LOCK.lock();
+    try {
+      int count = count( company ) - 1;
+      if ( count > 0 ) {
+        IN_FLIGHT.put( company, count );
+      } else {
+        IN_FLIGHT.remove( company );
+      }
+      RELEASED.signalAll();
+    } finally {
+      LOCK.unlock();
+    }
+  }
+
+  private static int count( String company ) {
+    Integer count = IN_FLIGHT.get( company );
+    return count == null ? 0 : count;
+  }
+}
@@ -0,0 +1,305 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.variables.VariableSpace;
+
+import com.adobe.analytics.client.ApiException;
+import com.adobe.analytics.client.JsonUtil;
+import com.adobe.analytics.client.auth.ClientAuthenticator;
+import com.adobe.analytics.client.auth.WsseAuthenticator;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Calls the Omniture REST API over {@link HttpURLConnection}, authenticated with WSSE.
+ *
+ * Unlike the client library, every request has a connect and a read timeout, asks for a gzip or
+ * deflate encoded response and reads the response and error bodies to the end before closing them, so
+ * that the JDK keep-alive cache hands the connection to the next request instead of opening a
+ * new one. Asynchronous calls run on a small pool of daemon threads owned by the transport.
+ */
+public class OmnitureHttpTransport implements OmnitureTransport {
+
+  /** the API endpoint of the step */
+  public static final String ENDPOINT = "api2.omniture.com";
+
+  /** milliseconds to wait for a connection when no timeout is set */
+  public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
+  /** milliseconds to wait for response data when no timeout is set */
+  public static final int DEFAULT_READ_TIMEOUT = 600000;
+
+  private static final String URL_FORMAT = "https://%s/admin/1.4/rest/?method=%s";
+  private static final String CHARSET = "UTF-8";
+  private static final ResponseHandler<String> TEXT = new ResponseHandler<String>() {
+    public String handle( InputStream response ) throws IOException {
+      return IOUtils.toString( new InputStreamReader( response, CHARSET ) );
+    }
+  };
+  private static final int MAX_ASYNC_CALLS = 8;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String endpoint;
+  private final ClientAuthenticator authenticator;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private ExecutorService async;
+  private OmnitureCircuitBreaker breaker;
+  private int errorRate;
+  private boolean waitWhenOpen;
+
+  /**
+   * @param endpoint
+   *          the host name of the API
+   * @param username
+   *          the web services user name, user:company
+   * @param secret
+   *          the shared secret of the user
+   * @param connectTimeout
+   *          the milliseconds to wait for a connection
+   * @param readTimeout
+   *          the milliseconds to wait for response data
+   */
+  public OmnitureHttpTransport( String endpoint, String username, String secret, int connectTimeout, int readTimeout ) {
+    this.endpoint = endpoint;
+    this.authenticator = new WsseAuthenticator( username, secret );
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Creates the transport configured in the step settings.
+   */
+  public static OmnitureHttpTransport forMeta( OmnitureInputMeta meta, VariableSpace space ) {
+    int connectTimeout = Const.toInt( space.environmentSubstitute( meta.getConnectTimeout() ), 0 ) * 1000;
+    int readTimeout = Const.toInt( space.environmentSubstitute( meta.getReadTimeout() ), 0 ) * 1000;
+    String username = space.environmentSubstitute( meta.getUserName() );
+    OmnitureHttpTransport transport = new OmnitureHttpTransport( ENDPOINT,
+      username, space.environmentSubstitute( meta.getSecret() ),
+      connectTimeout > 0 ? connectTimeout : DEFAULT_CONNECT_TIMEOUT,
+      readTimeout > 0 ? readTimeout : DEFAULT_READ_TIMEOUT );
+    int errorRate = Const.toInt( space.environmentSubstitute( meta.getCircuitBreakerErrorRate() ), 0 );
+    if ( errorRate > 0 ) {
+      transport.setCircuitBreaker(
+        OmnitureCircuitBreaker.forCompany( ENDPOINT, OmnitureCompanyLimiter.companyOf( username ) ),
+        Math.min( errorRate, 100 ), meta.isCircuitBreakerWait() );
+    }
+    return transport;
+  }
+
+  public String callMethod( String method, String request ) throws IOException {
+    return callMethod( method, request, TEXT );
+  }
+
+  public <T> T callMethod( String method, String request, ResponseHandler<T> handler ) throws IOException {
+    return call( method, request, handler, waitWhenOpen );
+  }
+
+  public <T> T callMethod( String method, Object request, Class<T> type ) throws IOException {
+    String response = callMethod( method, JsonUtil.GSON.toJson( request ) );
+    try {
+      return JsonUtil.GSON.fromJson( response, type );
+    } catch ( JsonSyntaxException e ) {
+      throw new IOException( "Unexpected response to " + method, e );
+    }
+  }
+
+  public Future<String> callMethodAsync( final String method, final String request ) {
+    return executor().submit( new Callable<String>() {
+      public String call() throws IOException {
+        // asynchronous calls are best effort, they never wait for an open circuit
+        return OmnitureHttpTransport.this.call( method, request, TEXT, false );
+      }
+    } );
+  }
+
+  /**
+   * Guards the calls of this transport with a circuit breaker.
+   *
+   * @param breaker
+   *          the breaker shared by the calls to the endpoint for the company
+   * @param errorRate
+   *          the percentage of failed calls that opens the breaker
+   * @param wait
+   *          true to wait while the breaker is open, false to fail right away
+   */
+  public void setCircuitBreaker( OmnitureCircuitBreaker breaker, int errorRate, boolean wait ) {
+    this.breaker = breaker;
+    this.errorRate = errorRate;
+    this.waitWhenOpen = wait;
+  }
+
+  private <T> T call( String method, String request, ResponseHandler<T> handler, boolean wait ) throws IOException {
+    OmnitureCircuitBreaker.Permit permit = null;
+    if ( breaker != null ) {
+      try {
+        permit = breaker.acquire( wait );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException( "Interrupted while calls to the API are suspended" );
+      }
+    }
+    boolean failed = true;
+    InputStream in;
+    try {
+      in = receive( send( method, request ) );
+      failed = false;
+    } catch ( ApiException e ) {
+      // the API answered, every acquired call must be recorded to release the probe of a half-open breaker
+      failed = false;
+      if ( breaker != null ) {
+        breaker.record( permit, false, errorRate );
+      }
+      throw e;
+    } finally {
+      if ( breaker != null && failed ) {
+        breaker.record( permit, true, errorRate );
+      }
+    }
+    try {
+      T result = handler.handle( in );
+      // whatever the handler left unread keeps the connection from going back to the keep-alive cache
+      IOUtils.copy( in, new NullOutputStream() );
+      return result;
+    } catch ( SocketException | SocketTimeoutException e ) {
+      // the connection broke off while reading
+      failed = true;
+      throw e;
+    } finally {
+      in.close();
+      if ( breaker != null ) {
+        breaker.record( permit, failed, errorRate );
+      }
+    }
+  }
+
+  public synchronized void close() {
+    if ( async != null ) {
+      async.shutdownNow();
+      async = null;
+    }
+  }
+
+  private synchronized ExecutorService executor() {
+    if ( async == null ) {
+      async = Executors.newFixedThreadPool( MAX_ASYNC_CALLS, new ThreadFactory() {
+        public Thread newThread( Runnable r ) {
+          Thread thread = new Thread( r, "Omniture transport" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    }
+    return async;
+  }
+
+  /**
+   * Opens a connection for the method and writes the request.
+   */
+  private HttpURLConnection send( String method, String request ) throws IOException {
+    URL url = new URL( String.format( URL_FORMAT, endpoint, URLEncoder.encode( method, CHARSET ) ) );
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout( connectTimeout );
+    connection.setReadTimeout( readTimeout );
+    connection.setUseCaches( false );
+    authenticator.authenticate( connection );
+    connection.setRequestProperty( "Accept-Encoding", "gzip, deflate" );
+    connection.setRequestProperty( "Content-Type", "application/json; charset=" + CHARSET );
+    byte[] body = request.getBytes( CHARSET );
+    connection.setDoOutput( true );
+    connection.setFixedLengthStreamingMode( body.length );
+    OutputStream out = connection.getOutputStream();
+    try {
+      out.write( body );
+    } finally {
+      out.close();
+    }
+    return connection;
+  }
+
+  /**
+   * Returns the decoded response body, or throws the error the API responded with.
+   */
+  private InputStream receive( HttpURLConnection connection ) throws IOException {
+    int status = connection.getResponseCode();
+    if ( status >= 200 && status <= 299 ) {
+      return decode( connection, connection.getInputStream() );
+    }
+    InputStream error = connection.getErrorStream();
+    if ( error != null ) {
+      String body;
+      try {
+        body = IOUtils.toString( new InputStreamReader( decode( connection, error ), CHARSET ) );
+      } finally {
+        error.close();
+      }
+      try {
+        JsonObject json = JsonUtil.GSON.fromJson( body, JsonObject.class );
+        if ( json != null && json.has( "error" ) && json.has( "error_description" ) ) {
+          throw new ApiException( json );
+        }
+      } catch ( JsonSyntaxException e ) {
+        // not an API error, report the HTTP status
+      }
+    }
+    throw new IOException( String.format( "HTTP error %d %s", status, connection.getResponseMessage() ) );
+  }
+
+  /**
+   * Wraps the body in a decoder for its content encoding, decompressing as it is read.
+   */
+  private static InputStream decode( HttpURLConnection connection, InputStream in ) throws IOException {
+    String encoding = connection.getContentEncoding();
+    if ( "gzip".equalsIgnoreCase( encoding ) ) {
+      return new GZIPInputStream( in, BUFFER_SIZE );
+    }
+    if ( "deflate".equalsIgnoreCase( encoding ) ) {
+      return new InflaterInputStream( in, new Inflater(), BUFFER_SIZE );
+    }
+    return in;
+  }
+}
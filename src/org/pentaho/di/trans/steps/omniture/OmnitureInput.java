@@ -22,19 +22,38 @@
 
 package org.pentaho.di.trans.steps.omniture;
 
+import java.io.File;
 import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
-import org.apache.commons.collections4.IteratorUtils;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -46,7 +65,6 @@ import org.pentaho.di.trans.steps.omniture.OmnitureInputMeta;
 
 import com.adobe.analytics.client.*;
 import com.adobe.analytics.client.domain.*;
-import com.adobe.analytics.client.methods.*;
 
 /**
  * This class is part of the demo step plug-in implementation.
@@ -71,6 +89,17 @@ import com.adobe.analytics.client.methods.*;
 public class OmnitureInput extends BaseStep implements StepInterface {
 	
 	private static Class<?> PKG = OmnitureInputMeta.class; 
+	/** most top-level values fetched for a fan-out, the row limit of a single report */
+	private static final int MAX_FAN_OUT_VALUES = 50000;
+	/** records converted per batch and conversion thread */
+	private static final int CONVERSION_BATCH_SIZE = 1024;
+	/** fewest records a conversion task converts without splitting further */
+	private static final int CONVERSION_TASK_SIZE = 128;
+	/** most distinct values cached per date field */
+	private static final int DATE_CACHE_SIZE = 10000;
+	/** report column holding the period of trended reports */
+	private static final String PERIOD_COLUMN = "datetime";
+	private static final String[] DATE_PARTS = { "year", "month", "day", "hour", "minute" };
     private OmnitureInputMeta meta;
     private OmnitureInputData data;
 
@@ -113,26 +142,483 @@ public class OmnitureInput extends BaseStep implements StepInterface {
 		  
 		    if ( first ) {
 		      first = false;
-		      // Create the output row meta-data
-		      data.outputRowMeta = new RowMeta();
+		      List<Object[]> parameterRows = null;
+		      if ( meta.isParametersFromInput() && !meta.isReplaySpool() ) {
+		        parameterRows = readParameterRows();
+		      }
+		      // Create the output row meta-data, the fields of the input rows driving the reports go last
+		      data.outputRowMeta = parameterRows == null || getInputRowMeta() == null
+		        ? new RowMeta() : getInputRowMeta().clone();
 		      meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
+		      if ( parameterRows != null && getInputRowMeta() != null ) {
+		        data.parameterOffset = data.outputRowMeta.size() - getInputRowMeta().size();
+		      }
 		      // For String to <type> conversions, we allocate a conversion meta data row as well...
 		      data.convertRowMeta = data.outputRowMeta.cloneToType( ValueMetaInterface.TYPE_STRING );
 		      
-		      // get report from Omniture
+		      long memoryLimit = Const.toLong( environmentSubstitute( meta.getMemoryLimit() ), 0L ) * 1024L * 1024L;
+		      if ( !Const.isEmpty( meta.getChangeIndexFile() ) ) {
+		        // only rows that are new or changed since the previous run are put out
+		        try {
+		          data.changes = new OmnitureChangeIndex( new File( environmentSubstitute( meta.getChangeIndexFile() ) ) );
+		        } catch ( IOException e ) {
+		          throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.ChangeIndexFailed" ), e );
+		        }
+		        commitChanges( data.changes );
+		        data.operationIndex = Const.isEmpty( meta.getOperationField() )
+		          ? -1 : data.outputRowMeta.indexOfValue( environmentSubstitute( meta.getOperationField() ) );
+		      }
+		      data.reportNameIndex = Const.isEmpty( meta.getReportNameField() )
+		        ? -1 : data.outputRowMeta.indexOfValue( environmentSubstitute( meta.getReportNameField() ) );
+		      for ( OmnitureReportDefinition definition : meta.getReportDefinitions() ) {
+		        // rows of a definition with a target step only go there
+		        if ( definition.getTargetStep() != null ) {
+		          if ( data.targetRowSets == null ) {
+		            data.targetRowSets = new HashMap<String, RowSet>();
+		          }
+		          RowSet rowSet = findOutputRowSet( definition.getTargetStep().getName() );
+		          if ( rowSet == null ) {
+		            throw new KettleException( BaseMessages.getString(
+		              PKG, "OmnitureInput.Exception.TargetStepMissing", definition.getTargetStep().getName() ) );
+		          }
+		          data.targetRowSets.put( definition.getName(), rowSet );
+		        }
+		      }
+		      data.results = new ArrayList<Future<OmnitureReportBuffer>>();
+		      if ( meta.isReplaySpool() ) {
+		        // decode the spooled responses of a previous run instead of calling the API
+		        OmnitureReportSpool spool =
+		          new OmnitureReportSpool( environmentSubstitute( meta.getSpoolDirectory() ), getStepname(), getCopy() );
+		        List<List<File>> reports = spool.listReports();
+		        if ( reports.isEmpty() ) {
+		          throw new KettleException( BaseMessages.getString(
+		            PKG, "OmnitureInput.Exception.NoSpooledReports", spool.getDirectory().getPath() ) );
+		        }
+		        data.executor = Executors.newFixedThreadPool( Math.min( reports.size(), Runtime.getRuntime().availableProcessors() ) );
+		        int files = 0;
+		        for ( List<File> report : reports ) {
+		          files += report.size();
+		        }
+		        if ( files > reports.size() || meta.isSortedOutput() ) {
+		          data.joinExecutor = OmnitureReportExecutors.newReportExecutor( reports.size() );
+		        }
+		        for ( List<File> report : reports ) {
+		          List<Callable<OmnitureReportBuffer>> parts = new ArrayList<Callable<OmnitureReportBuffer>>();
+		          for ( File file : report ) {
+		            parts.add( OmnitureReportSpool.replay( file, memoryLimit ) );
+		          }
+		          submitReport( parts, data.results.size(), memoryLimit );
+		        }
+		      } else {
+		        // get report from Omniture
+		        OmnitureReportSpool spool = null;
+		        if ( !Const.isEmpty( meta.getSpoolDirectory() ) ) {
+		          spool = new OmnitureReportSpool( environmentSubstitute( meta.getSpoolDirectory() ), getStepname(), getCopy() );
+		          try {
+		            spool.clear();
+		          } catch ( IOException e ) {
+		            throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.SpoolFailed" ), e );
+		          }
+		        }
+		        // the queued reports are polled together
+		        data.session = new OmnitureReportSession( data.transport, data.account,
+		          new OmnitureReportPoller( data.transport, OmnitureReportJob.POLL_INTERVAL ), spool,
+		          OmnitureReportStats.getInstance(), memoryLimit,
+		          meta.isDownloadToFile() ? new File( System.getProperty( "java.io.tmpdir" ) ) : null,
+		          Const.toInt( environmentSubstitute( meta.getMaxReportsPerCompany() ), 0 ),
+		          OmnitureReportWatchdog.forMeta( meta, this, getLogChannel() ) );
+		        List<List<Callable<OmnitureReportBuffer>>> reports = new ArrayList<List<Callable<OmnitureReportBuffer>>>();
+		        int jobs = 0;
+		        // every definition and input row runs its own set of reports, all of them through the same
+		        // session and scheduler
+		        List<OmnitureReportDefinition> definitions = meta.getReportDefinitions().length == 0
+		          ? Collections.<OmnitureReportDefinition>singletonList( null ) : Arrays.asList( meta.getReportDefinitions() );
+		        List<Object[]> drivers = parameterRows == null ? Collections.<Object[]>singletonList( null ) : parameterRows;
+		        if ( parameterRows != null ) {
+		          data.reportParameters = new ArrayList<Object[]>();
+		        }
+		        data.reportDefinitions = new ArrayList<OmnitureReportDefinition>();
+		        for ( OmnitureReportDefinition definition : definitions ) {
+		          for ( Object[] parameters : drivers ) {
+		            ReportDescription base = buildReportDescription( definition, parameters );
+		            List<ReportDescription> descs = fanOut( base, definition, parameters );
+		            for ( String[] dates : chunkDates( base ) ) {
+		              for ( ReportDescription desc : descs ) {
+		                List<List<ReportDescriptionSegment>> segmentGroups = splitSegments( desc.getSegments() );
+		                for ( List<ReportDescriptionSegment> segments : segmentGroups ) {
+		                  List<Callable<OmnitureReportBuffer>> parts = new ArrayList<Callable<OmnitureReportBuffer>>();
+		                  List<List<ReportDescriptionMetric>> metricGroups = splitMetrics( desc.getMetrics() );
+		                  // only whole reports tell how big the reports of the definition are
+		                  boolean wholeReport = descs.size() == 1 && segmentGroups.size() == 1 && metricGroups.size() == 1;
+		                  for ( List<ReportDescriptionMetric> metrics : metricGroups ) {
+		                    ReportDescription part = buildReportDescription( definition, parameters );
+		                    part.setDateFrom( dates[0] );
+		                    part.setDateTo( dates[1] );
+		                    part.setElements( desc.getElements() );
+		                    part.setSegments( segments );
+		                    part.setMetrics( metrics );
+		                    OmnitureReportJob job = new OmnitureReportJob( data.session, part, reports.size(), parts.size() );
+		                    job.setWholeReport( wholeReport );
+		                    parts.add( job );
+		                  }
+		                  reports.add( parts );
+		                  if ( data.reportParameters != null ) {
+		                    data.reportParameters.add( parameters );
+		                  }
+		                  data.reportDefinitions.add( definition );
+		                  jobs += parts.size();
+		                }
+		              }
+		            }
+		          }
+		        }
+		        // reports and the parts of a split report are queued at the same time, joins wait on their own threads
+		        if ( reports.isEmpty() ) {
+		          // no input rows, nothing to fetch
+		          setOutputDone();
+		          return false;
+		        }
+		        data.scheduler = new OmnitureReportScheduler( jobs );
+		        if ( jobs > reports.size() || meta.isSortedOutput() ) {
+		          data.joinExecutor = OmnitureReportExecutors.newReportExecutor( reports.size() );
+		        }
+		        if ( log.isDetailed() ) {
+		          logDetailed( BaseMessages.getString( PKG, OmnitureReportExecutors.isVirtual()
+		            ? "OmnitureInput.Log.VirtualThreads" : "OmnitureInput.Log.PlatformThreads", jobs ) );
+		        }
+		        for ( List<Callable<OmnitureReportBuffer>> parts : reports ) {
+		          submitReport( parts, data.results.size(), memoryLimit );
+		        }
+		      }
+		      if ( meta.isSortedOutput() ) {
+		        sortReports( memoryLimit );
+		      }
+
+		      // period strings repeat all over a report, every date field parses each of them once
+		      data.timeZone = Const.isEmpty( meta.getTimeZone() )
+		        ? TimeZone.getDefault() : TimeZone.getTimeZone( environmentSubstitute( meta.getTimeZone() ) );
+		      data.dateCaches = new ArrayList<Map<String, Date>>();
+		      for ( int i = 0; i < data.nrfields; i++ ) {
+		        data.dateCaches.add( data.outputRowMeta.getValueMeta( i ).getType() == ValueMetaInterface.TYPE_DATE
+		          ? new ConcurrentHashMap<String, Date>() : null );
+		      }
+
+		      int threads = Const.toInt( environmentSubstitute( meta.getConversionThreads() ), 1 );
+		      if ( threads > 1 ) {
+		        data.conversionPool = new ForkJoinPool( threads );
+		        // value metas cache formatters, every worker converts with copies of its own
+		        final RowMetaInterface outputRowMeta = data.outputRowMeta;
+		        final RowMetaInterface convertRowMeta = data.convertRowMeta;
+		        data.conversionMetas = new ThreadLocal<RowMetaInterface[]>() {
+		          protected RowMetaInterface[] initialValue() {
+		            return new RowMetaInterface[] { outputRowMeta.clone(), convertRowMeta.clone() };
+		          }
+		        };
+		      }
+		    }
+		      
+		    try {
+		        if ( data.conversionPool != null ) {
+		          return processBatch();
+		        }
+		        // get one row if we can
+		        if ( !nextRecord() ) {
+			          setOutputDone();
+			          return false;
+			    }
+		      } catch ( KettleException e ) {
+		        // a report that failed or ran out of time fails the step, it isn't a row in error
+		        return failStep( e );
+		      }
+		    String reportName = data.buffer.getReportName();
+		    Object[] record = readRecord( data.cursor );
+		    Object[] outputRowData;
+		    try {
+		        outputRowData = convertRecord( record, data.outputRowMeta, data.convertRowMeta );
+		      } catch ( KettleException e ) {
+		        return handleError( e, record );
+		      }
+		    putReportRow( outputRowData, reportName ); // copy row to output rowset(s);
+		    return true;
+		    }
+
+		  /**
+		   * Replaces the change index once the whole transformation finished without errors, so that rows
+		   * a later step failed on are put out again by the next run.
+		   */
+		  private void commitChanges( final OmnitureChangeIndex changes ) {
+		    getTrans().addTransListener( new TransAdapter() {
+		      @Override
+		      public void transFinished( Trans trans ) throws KettleException {
+		        if ( !changes.isWritten() ) {
+		          return;
+		        }
+		        if ( trans.getErrors() > 0 || trans.isStopped() ) {
+		          changes.discard();
+		          return;
+		        }
+		        try {
+		          changes.commit();
+		        } catch ( IOException e ) {
+		          throw new KettleException(
+		            BaseMessages.getString( PKG, "OmnitureInput.Exception.ChangeIndexFailed" ), e );
+		        }
+		      }
+		    } );
+		  }
+
+		  /**
+		   * Stops the step on a failure of a report.
+		   *
+		   * @return false
+		   */
+		  private boolean failStep( KettleException e ) {
+		    logError( BaseMessages.getString( PKG, "OmnitureInput.log.Exception", e.getMessage() ) );
+		    logError( Const.getStackTracker( e ) );
+		    setErrors( 1 );
+		    stopAll();
+		    setOutputDone(); // signal end to receiver(s)
+		    return false;
+		  }
+
+		  /**
+		   * Sends a row that failed to convert to the error stream if the step does error handling, stops the step
+		   * otherwise.
+		   *
+		   * @param record the record that failed to convert, null if none was read
+		   * @return false if the step was stopped
+		   */
+		  private boolean handleError( KettleException e, Object[] record ) throws KettleException {
+		        boolean sendToErrorRow = false;
+		        String errorMessage = null;
+		        if ( getStepMeta().isDoingErrorHandling() ) {
+		          sendToErrorRow = true;
+		          errorMessage = e.toString();
+		        } else {
+		          return failStep( e );
+		        }
+		        if ( sendToErrorRow ) {
+		          // the report values are left out, only the fields added by the step are typed already
+		          Object[] outputRowData = buildEmptyRow();
+		          if ( record != null ) {
+		            System.arraycopy( record, data.nrfields, outputRowData, data.nrfields, record.length - data.nrfields );
+		          }
+		          putError( data.outputRowMeta, outputRowData, 1, errorMessage, null, "OmnitureInput001" );
+		        }
+		      return true;
+		  }
+
+		  /**
+		   * Reads a batch of records, converts them on the conversion pool and puts the rows
+		   * in their original order.
+		   */
+		  private boolean processBatch() throws KettleException {
+		    int batchSize = CONVERSION_BATCH_SIZE * data.conversionPool.getParallelism();
+		    Object[][] records = new Object[batchSize][];
+		    String[] reportNames = new String[batchSize];
+		    int count = 0;
+		    KettleException failure = null;
+		    try {
+		      while ( count < batchSize && nextRecord() ) {
+		        reportNames[count] = data.buffer.getReportName();
+		        records[count++] = readRecord( data.cursor );
+		      }
+		    } catch ( KettleException e ) {
+		      // the records read so far are put out before the failure is raised
+		      failure = e;
+		    }
+		    if ( count == 0 ) {
+		      if ( failure != null ) {
+		        throw failure;
+		      }
+		      setOutputDone();
+		      return false;
+		    }
+		    Object[][] rows = new Object[count][];
+		    KettleException[] errors = new KettleException[count];
+		    data.conversionPool.invoke( new ConversionTask( records, rows, errors, 0, count ) );
+		    for ( int i = 0; i < count; i++ ) {
+		      if ( errors[i] != null ) {
+		        if ( !handleError( errors[i], records[i] ) ) {
+		          return false;
+		        }
+		      } else {
+		        putReportRow( rows[i], reportNames[i] );
+		      }
+		    }
+		    if ( failure != null ) {
+		      throw failure;
+		    }
+		    return true;
+		  }
+
+		  /**
+		   * Puts a row to the target step of its report definition, if it has one, or to all output hops.
+		   */
+		  private void putReportRow( Object[] row, String reportName ) throws KettleStepException {
+		    RowSet rowSet = data.targetRowSets == null || reportName == null ? null : data.targetRowSets.get( reportName );
+		    if ( rowSet != null ) {
+		      putRowTo( data.outputRowMeta, row, rowSet );
+		    } else {
+		      putRow( data.outputRowMeta, row );
+		    }
+		  }
+
+		  /**
+		   * Converts a range of records, splitting it in halves down to {@link #CONVERSION_TASK_SIZE} records.
+		   */
+		  private class ConversionTask extends RecursiveAction {
+		    private static final long serialVersionUID = 1L;
+
+		    private final Object[][] records;
+		    private final Object[][] rows;
+		    private final KettleException[] errors;
+		    private final int from;
+		    private final int to;
+
+		    ConversionTask( Object[][] records, Object[][] rows, KettleException[] errors, int from, int to ) {
+		      this.records = records;
+		      this.rows = rows;
+		      this.errors = errors;
+		      this.from = from;
+		      this.to = to;
+		    }
+
+		    protected void compute() {
+		      if ( to - from > CONVERSION_TASK_SIZE ) {
+		        int middle = ( from + to ) >>> 1;
+		        invokeAll( new ConversionTask( records, rows, errors, from, middle ),
+		          new ConversionTask( records, rows, errors, middle, to ) );
+		        return;
+		      }
+		      RowMetaInterface[] metas = data.conversionMetas.get();
+		      for ( int i = from; i < to; i++ ) {
+		        try {
+		          rows[i] = convertRecord( records[i], metas[0], metas[1] );
+		        } catch ( KettleException e ) {
+		          errors[i] = e;
+		        }
+		      }
+		    }
+		  }
+		  
+		  /**
+		   * Reads all input rows, each of them drives the reports run with its parameters.
+		   */
+		  private List<Object[]> readParameterRows() throws KettleException {
+		    List<Object[]> rows = new ArrayList<Object[]>();
+		    Object[] row;
+		    while ( ( row = getRow() ) != null ) {
+		      rows.add( row );
+		    }
+		    if ( getInputRowMeta() != null ) {
+		      data.suiteIndex = parameterIndex( meta.getSuiteField() );
+		      data.startDateIndex = parameterIndex( meta.getStartDateField() );
+		      data.endDateIndex = parameterIndex( meta.getEndDateField() );
+		      data.segmentsIndex = parameterIndex( meta.getSegmentsField() );
+		    }
+		    return rows;
+		  }
+
+		  private int parameterIndex( String field ) throws KettleException {
+		    if ( Const.isEmpty( field ) ) {
+		      return -1;
+		    }
+		    int index = getInputRowMeta().indexOfValue( environmentSubstitute( field ) );
+		    if ( index < 0 ) {
+		      throw new KettleException( BaseMessages.getString(
+		        PKG, "OmnitureInput.Exception.ParameterFieldMissing", environmentSubstitute( field ) ) );
+		    }
+		    return index;
+		  }
+
+		  /**
+		   * Builds the report of a definition, or of the step for none, with the report suite, dates and segments
+		   * of an input row, where given.
+		   */
+		  private ReportDescription buildReportDescription( OmnitureReportDefinition definition, Object[] parameters )
+		    throws KettleException {
+		    ReportDescription desc = buildReportDescription();
+		    if ( definition != null ) {
+		      String elements = environmentSubstitute( definition.getElements() );
+		      if ( !Const.isEmpty( elements ) ) {
+		        List<ReportDescriptionElement> descElements = new ArrayList<ReportDescriptionElement>();
+		        for ( String id : elements.split( "," ) ) {
+		          ReportDescriptionElement element = new ReportDescriptionElement();
+		          element.setId( id.trim() );
+		          descElements.add( element );
+		        }
+		        desc.setElements( descElements );
+		      }
+		      String metrics = environmentSubstitute( definition.getMetrics() );
+		      if ( !Const.isEmpty( metrics ) ) {
+		        List<ReportDescriptionMetric> descMetrics = new ArrayList<ReportDescriptionMetric>();
+		        for ( String id : metrics.split( "," ) ) {
+		          ReportDescriptionMetric metric = new ReportDescriptionMetric();
+		          metric.setId( id.trim() );
+		          descMetrics.add( metric );
+		        }
+		        desc.setMetrics( descMetrics );
+		      }
+		      String segments = environmentSubstitute( definition.getSegments() );
+		      if ( !Const.isEmpty( segments ) ) {
+		        desc.setSegments( buildSegments( segments ) );
+		      }
+		      String granularity = environmentSubstitute( definition.getDateGranularity() );
+		      if ( !Const.isEmpty( granularity ) ) {
+		        desc.setDateGranularity( ReportDescriptionDateGranularity.valueOf( granularity ) );
+		      }
+		    }
+		    if ( parameters == null ) {
+		      return desc;
+		    }
+		    RowMetaInterface rowMeta = getInputRowMeta();
+		    if ( data.suiteIndex >= 0 ) {
+		      desc.setReportSuiteID( rowMeta.getString( parameters, data.suiteIndex ) );
+		    }
+		    if ( data.startDateIndex >= 0 ) {
+		      desc.setDateFrom( parameterDate( rowMeta, parameters, data.startDateIndex ) );
+		    }
+		    if ( data.endDateIndex >= 0 ) {
+		      desc.setDateTo( parameterDate( rowMeta, parameters, data.endDateIndex ) );
+		    }
+		    if ( data.segmentsIndex >= 0 ) {
+		      String ids = rowMeta.getString( parameters, data.segmentsIndex );
+		      desc.setSegments( Const.isEmpty( ids ) ? null : buildSegments( ids ) );
+		    }
+		    return desc;
+		  }
+
+		  private List<ReportDescriptionSegment> buildSegments( String ids ) {
+		    List<ReportDescriptionSegment> segments = new ArrayList<ReportDescriptionSegment>();
+		    for ( String id : ids.split( "," ) ) {
+		      ReportDescriptionSegment segment = new ReportDescriptionSegment();
+		      segment.setId( id.trim() );
+		      segments.add( segment );
+		    }
+		    return segments;
+		  }
+
+		  /**
+		   * @return the date of an input field as the API takes it, Date fields are formatted as days
+		   */
+		  private String parameterDate( RowMetaInterface rowMeta, Object[] row, int index ) throws KettleException {
+		    ValueMetaInterface valueMeta = rowMeta.getValueMeta( index );
+		    if ( valueMeta.isDate() ) {
+		      Date date = valueMeta.getDate( row[index] );
+		      return date == null ? null : new SimpleDateFormat( "yyyy-MM-dd" ).format( date );
+		    }
+		    return valueMeta.getString( row[index] );
+		  }
+
+		  private ReportDescription buildReportDescription() {
 		      ReportDescription desc = new ReportDescription();
 		      desc.setReportSuiteID(meta.getReportSuiteId());
 		      desc.setDateFrom(meta.getStartDate());
 		      desc.setDateTo(meta.getEndDate());
 		      
 		      // parse lists of elements, metrics
-			    List<ReportDescriptionMetric> descMetrics = new ArrayList<>();
-				for (String id : meta.getMetrics().split(",")) {
-					ReportDescriptionMetric metric = new ReportDescriptionMetric();
-					metric.setId(id);
-					descMetrics.add(metric);
-				}
-				desc.setMetrics(descMetrics);
+				desc.setMetrics(buildMetrics());
 				List<ReportDescriptionElement> descElems = new ArrayList<>();
 				for (String id : meta.getElements().split(",")) {
 					ReportDescriptionElement elem = new ReportDescriptionElement();
@@ -153,60 +639,299 @@ public class OmnitureInput extends BaseStep implements StepInterface {
 			    if ( meta.getDateGranularity() != null && !meta.getDateGranularity().equals("") ){
 			      desc.setDateGranularity(ReportDescriptionDateGranularity.valueOf(meta.getDateGranularity()));
 			    }
-			    
-		      ReportMethods reportMethods = new ReportMethods(data.client);
-		      ReportResponse reportResponse = null;
+			    return desc;
+		  }
+		  
+		  /**
+		   * Splits the date range of a trended report into chunks sized from what previous runs
+		   * observed for the same report, so that every chunk comes back at about the configured
+		   * response size and its expected queue time stays well within the report timeout. Without previous
+		   * numbers the range is fetched at once and measured.
+		   *
+		   * Only reports by hour or day are chunked, chunks of whole days don't cut their periods in two.
+		   */
+		  private List<String[]> chunkDates( ReportDescription desc ) throws KettleException {
+		    List<String[]> chunks = new ArrayList<String[]>();
+		    long targetSize = Const.toLong( environmentSubstitute( meta.getChunkTargetSize() ), 0L ) * 1024L * 1024L;
+		    int days = OmnitureReportStats.days( desc.getDateFrom(), desc.getDateTo() );
+		    ReportDescriptionDateGranularity granularity = desc.getDateGranularity();
+		    OmnitureReportWatchdog watchdog = data.session.getWatchdog();
+		    // half the timeout, the queue time of a report varies a lot around its average
+		    long maxLatency = watchdog == null ? 0L : watchdog.getReportTimeout() / 2;
+		    int chunkDays = 0;
+		    if ( targetSize > 0 && days > 1
+		      && ( granularity == ReportDescriptionDateGranularity.DAY || granularity == ReportDescriptionDateGranularity.HOUR ) ) {
 		      try {
-				reportResponse = reportMethods.retrieveReport(desc);
-			  } catch (IOException e) {
-				e.printStackTrace();
+		        chunkDays = data.session.getStats().chunkDays( desc, targetSize, maxLatency );
+		      } catch ( IOException e ) {
+		        logError( BaseMessages.getString( PKG, "OmnitureInput.Exception.StatsFailed" ), e );
 		      }
-		      Report report = reportResponse.getReport();
-		      data.headerNames = report.getHeaders();
-		      data.records = report.getRecords();
 		    }
-		      
-		    Object[] outputRowData = null;
-		    
+		    if ( chunkDays <= 0 || chunkDays >= days ) {
+		      chunks.add( new String[] { desc.getDateFrom(), desc.getDateTo() } );
+		      return chunks;
+		    }
+		    SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd" );
+		    Calendar calendar = Calendar.getInstance();
 		    try {
-		        // get one row if we can
-		        if ( data.records.size()-1 < data.recordIndex ) {
-			          setOutputDone();
-			          return false;
-			    }
-		    	Record record = data.records.get(data.recordIndex);
-		    	outputRowData = prepareRecord(record);
-		        putRow( data.outputRowMeta, outputRowData ); // copy row to output rowset(s);
-		        data.recordIndex++;
-		        return true;
-		      } catch ( KettleException e ) {
-		        boolean sendToErrorRow = false;
-		        String errorMessage = null;
-		        if ( getStepMeta().isDoingErrorHandling() ) {
-		          sendToErrorRow = true;
-		          errorMessage = e.toString();
-		        } else {
-		          logError( BaseMessages.getString( PKG, "OmnitureInput.log.Exception", e.getMessage() ) );
-		          logError( Const.getStackTracker( e ) );
-		          setErrors( 1 );
-		          stopAll();
-		          setOutputDone(); // signal end to receiver(s)
-		          return false;
+		      calendar.setTime( format.parse( desc.getDateFrom() ) );
+		    } catch ( ParseException e ) {
+		      throw new KettleException( e );
+		    }
+		    for ( int day = 0; day < days; day += chunkDays ) {
+		      String from = format.format( calendar.getTime() );
+		      calendar.add( Calendar.DATE, Math.min( chunkDays, days - day ) - 1 );
+		      chunks.add( new String[] { from, format.format( calendar.getTime() ) } );
+		      calendar.add( Calendar.DATE, 1 );
+		    }
+		    if ( log.isDetailed() ) {
+		      logDetailed( BaseMessages.getString( PKG, "OmnitureInput.Log.DateChunks", days, chunks.size(), chunkDays ) );
+		    }
+		    return chunks;
+		  }
+
+		  /**
+		   * Fans a breakdown out into one narrower report per bucket of values of its first element,
+		   * if configured. Otherwise the report is returned as is.
+		   */
+		  private List<ReportDescription> fanOut( ReportDescription desc, OmnitureReportDefinition definition,
+		    Object[] parameters ) throws KettleException {
+		    int valuesPerReport = Const.toInt( environmentSubstitute( meta.getFanOutValuesPerReport() ), 0 );
+		    List<ReportDescription> descs = new ArrayList<ReportDescription>();
+		    if ( valuesPerReport <= 0 || desc.getElements().size() < 2 ) {
+		      descs.add( desc );
+		      return descs;
+		    }
+		    List<String> values = fetchTopLevelValues( desc );
+		    for ( int i = 0; i < values.size(); i += valuesPerReport ) {
+		      ReportDescription bucket = buildReportDescription( definition, parameters );
+		      bucket.getElements().get( 0 ).setSelected(
+		        new ArrayList<String>( values.subList( i, Math.min( i + valuesPerReport, values.size() ) ) ) );
+		      descs.add( bucket );
+		    }
+		    if ( log.isDetailed() ) {
+		      logDetailed( BaseMessages.getString( PKG, "OmnitureInput.Log.FanOut", values.size(), descs.size() ) );
+		    }
+		    return descs;
+		  }
+
+		  /**
+		   * Fetches the values of the first element of the breakdown with a ranked report of that element alone.
+		   */
+		  private List<String> fetchTopLevelValues( ReportDescription desc ) throws KettleException {
+		    ReportDescription valuesDesc = new ReportDescription();
+		    valuesDesc.setReportSuiteID( desc.getReportSuiteID() );
+		    valuesDesc.setDateFrom( desc.getDateFrom() );
+		    valuesDesc.setDateTo( desc.getDateTo() );
+		    valuesDesc.setMetrics( new ArrayList<ReportDescriptionMetric>( desc.getMetrics().subList( 0, 1 ) ) );
+		    ReportDescriptionElement element = new ReportDescriptionElement();
+		    element.setId( desc.getElements().get( 0 ).getId() );
+		    element.setTop( MAX_FAN_OUT_VALUES );
+		    List<ReportDescriptionElement> elements = new ArrayList<ReportDescriptionElement>();
+		    elements.add( element );
+		    valuesDesc.setElements( elements );
+		    valuesDesc.setSegments( desc.getSegments() );
+		    try {
+		      String response = new OmnitureReportJob( data.session, valuesDesc, 0, 0 ).fetch();
+		      Report report = JsonUtil.GSON.fromJson( response, ReportResponse.class ).getReport();
+		      List<String> values = new ArrayList<String>();
+		      if ( report.getData() != null ) {
+		        for ( ReportData row : report.getData() ) {
+		          values.add( row.getName() );
 		        }
-		        if ( sendToErrorRow ) {
-		          // Simply add this row to the error row
-		          putError( getInputRowMeta(), outputRowData, 1, errorMessage, null, "OmnitureInput001" );
+		      }
+		      return values;
+		    } catch ( IOException | InterruptedException e ) {
+		      throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.FanOutFailed" ), e );
+		    }
+		  }
+
+		  private List<ReportDescriptionMetric> buildMetrics() {
+			    List<ReportDescriptionMetric> descMetrics = new ArrayList<>();
+				for (String id : meta.getMetrics().split(",")) {
+					ReportDescriptionMetric metric = new ReportDescriptionMetric();
+					metric.setId(id);
+					descMetrics.add(metric);
+				}
+				return descMetrics;
+		  }
+
+		  /**
+		   * Splits the metrics into groups of at most the configured number of metrics per report.
+		   */
+		  private List<List<ReportDescriptionMetric>> splitMetrics( List<ReportDescriptionMetric> metrics ) {
+		    int max = Const.toInt( environmentSubstitute( meta.getMaxMetricsPerReport() ), 0 );
+		    List<List<ReportDescriptionMetric>> groups = new ArrayList<List<ReportDescriptionMetric>>();
+		    if ( max <= 0 || metrics.size() <= max ) {
+		      groups.add( metrics );
+		      return groups;
+		    }
+		    for ( int i = 0; i < metrics.size(); i += max ) {
+		      groups.add( new ArrayList<ReportDescriptionMetric>( metrics.subList( i, Math.min( i + max, metrics.size() ) ) ) );
+		    }
+		    return groups;
+		  }
+
+		  /**
+		   * Splits the segments into one report per segment if configured,
+		   * otherwise all segments are applied to the same report.
+		   */
+		  private List<List<ReportDescriptionSegment>> splitSegments( List<ReportDescriptionSegment> segments ) {
+		    List<List<ReportDescriptionSegment>> groups = new ArrayList<List<ReportDescriptionSegment>>();
+		    if ( !meta.isSegmentFanOut() || segments == null || segments.size() < 2 ) {
+		      groups.add( segments );
+		      return groups;
+		    }
+		    for ( ReportDescriptionSegment segment : segments ) {
+		      List<ReportDescriptionSegment> group = new ArrayList<ReportDescriptionSegment>();
+		      group.add( segment );
+		      groups.add( group );
+		    }
+		    return groups;
+		  }
+
+		  /**
+		   * Submits the parts of a report, joining them on their elements if there is more than one.
+		   * Joins run on threads of their own, so they never hold up the parts they wait on.
+		   */
+		  private void submitReport( List<Callable<OmnitureReportBuffer>> parts, int sequence, long memoryLimit ) {
+		    List<Future<OmnitureReportBuffer>> futures = new ArrayList<Future<OmnitureReportBuffer>>();
+		    for ( Callable<OmnitureReportBuffer> part : parts ) {
+		      futures.add( submitPart( part, sequence ) );
+		    }
+		    if ( futures.size() == 1 ) {
+		      data.results.add( futures.get( 0 ) );
+		      return;
+		    }
+		    data.results.add( data.joinExecutor.submit( new OmnitureReportJoin( futures, memoryLimit ) ) );
+		  }
+
+		  /**
+		   * Queues a report job with the scheduler, which starts the largest ones first, or a replay on the executor.
+		   */
+		  private Future<OmnitureReportBuffer> submitPart( Callable<OmnitureReportBuffer> part, int sequence ) {
+		    if ( data.scheduler == null || !( part instanceof OmnitureReportJob ) ) {
+		      return data.executor.submit( part );
+		    }
+		    long estimate = 0;
+		    try {
+		      estimate = data.session.getStats().estimateBytes( ( (OmnitureReportJob) part ).getDescription() );
+		    } catch ( IOException e ) {
+		      // unknown, keeps its place in the output order
+		    }
+		    return data.scheduler.submit( part, sequence, estimate );
+		  }
+
+		  /**
+		   * Queues a sort of every report behind it, the merge in {@link #nextMergedRecord()} relies on them.
+		   */
+		  private void sortReports( final long memoryLimit ) {
+		    for ( int i = 0; i < data.results.size(); i++ ) {
+		      final Future<OmnitureReportBuffer> report = data.results.get( i );
+		      data.results.set( i, data.joinExecutor.submit( new Callable<OmnitureReportBuffer>() {
+		        public OmnitureReportBuffer call() throws Exception {
+		          try {
+		            return OmnitureReportSorter.sort( report.get(), memoryLimit );
+		          } finally {
+		            if ( !report.isDone() ) {
+		              report.cancel( true );
+		            }
+		          }
 		        }
+		      } ) );
+		    }
+		  }
+
+		  /**
+		   * Reads the values of the current record off the cursor: metrics going into Number fields
+		   * as Doubles, everything else as Strings still to be converted.
+		   */
+		  private Object[] readRecord( OmnitureReportBuffer.Cursor cursor ) {
+		    Object[] record = new Object[data.outputRowMeta.size()];
+		    for ( int i = 0; i < data.nrfields; i++ ) {
+		      int column = data.fieldIndexes[i];
+		      if ( column < 0 ) {
+		        // not part of this report, the fields are shared by all report definitions
+		        continue;
+		      }
+		      // metrics going into Number or Integer fields don't need the String round trip
+		      int type = data.outputRowMeta.getValueMeta( i ).getType();
+		      if ( data.buffer.isMetric( column ) && type == ValueMetaInterface.TYPE_NUMBER ) {
+		        double metric = cursor.getMetric( column );
+		        record[i] = Double.isNaN( metric ) ? null : Double.valueOf( metric );
+		      } else if ( data.buffer.isMetric( column ) && type == ValueMetaInterface.TYPE_INTEGER ) {
+		        double metric = cursor.getMetric( column );
+		        record[i] = Double.isNaN( metric ) ? null : Long.valueOf( Math.round( metric ) );
+		      } else if ( data.periodFields[i] ) {
+		        record[i] = readPeriod( cursor, i, column );
+		      } else {
+		        record[i] = cursor.getString( column );
 		      }
-		      return true;
 		    }
-		  
-		  private Object[] prepareRecord(Record record) throws KettleException {
+		    if ( !Const.isEmpty( meta.getSegmentField() ) ) {
+		      record[data.nrfields] = data.buffer.getSegment();
+		    }
+		    if ( data.changes != null && data.operationIndex >= 0 ) {
+		      record[data.operationIndex] = data.operation;
+		    }
+		    if ( data.reportNameIndex >= 0 ) {
+		      record[data.reportNameIndex] = data.buffer.getReportName();
+		    }
+		    Object[] parameters = data.buffer.getParameters();
+		    if ( parameters != null ) {
+		      System.arraycopy( parameters, 0, record, data.parameterOffset, record.length - data.parameterOffset );
+		    }
+		    return record;
+		  }
+
+		  /**
+		   * Builds the date of the period of the current record from its date parts,
+		   * falling back to the period name if the parts can't be read.
+		   */
+		  private Object readPeriod( OmnitureReportBuffer.Cursor cursor, int field, int column ) {
+		    String name = cursor.getString( column );
+		    if ( name == null ) {
+		      return null;
+		    }
+		    Map<String, Date> cache = data.dateCaches.get( field );
+		    Date date = cache.get( name );
+		    if ( date == null ) {
+		      Calendar calendar = Calendar.getInstance( data.timeZone );
+		      calendar.clear();
+		      int[] fields = { Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH, Calendar.HOUR_OF_DAY, Calendar.MINUTE };
+		      for ( int i = 0; i < DATE_PARTS.length; i++ ) {
+		        if ( data.dateColumns[i] < 0 ) {
+		          continue;
+		        }
+		        int value = Const.toInt( cursor.getString( data.dateColumns[i] ), Integer.MIN_VALUE );
+		        if ( value == Integer.MIN_VALUE ) {
+		          return name;
+		        }
+		        calendar.set( fields[i], fields[i] == Calendar.MONTH ? value - 1 : value );
+		      }
+		      date = calendar.getTime();
+		      if ( cache.size() < DATE_CACHE_SIZE ) {
+		        cache.put( name, date );
+		      }
+		    }
+		    return new Date( date.getTime() );
+		  }
+
+		  /**
+		   * Trims and converts the String values of a record into an output row.
+		   */
+		  private Object[] convertRecord( Object[] record, RowMetaInterface outputRowMeta,
+		    RowMetaInterface convertRowMeta ) throws KettleException {
 		    // Build an empty row based on the meta-data
 		    Object[] outputRowData = buildEmptyRow();
 		    try {
 		      for ( int i = 0; i < data.nrfields; i++ ) {
-		    	String value = IteratorUtils.toList(record.iterator()).get(data.headerNames.indexOf(meta.getInputFields()[i].getName()));
+		        if ( !( record[i] instanceof String ) ) {
+		          outputRowData[i] = record[i];
+		          continue;
+		        }
+		        ValueMetaInterface targetValueMeta = outputRowMeta.getValueMeta( i );
+		    	String value = (String) record[i];
 		        // do trimming!
 		        switch ( meta.getInputFields()[i].getTrimType() ) {
 		          case OmnitureInputField.TYPE_TRIM_LEFT:
@@ -222,12 +947,25 @@ public class OmnitureInput extends BaseStep implements StepInterface {
 		            break;
 		        }
 		        // do conversions
-		        ValueMetaInterface targetValueMeta = data.outputRowMeta.getValueMeta( i );
-		        ValueMetaInterface sourceValueMeta = data.convertRowMeta.getValueMeta( i );
+		        ValueMetaInterface sourceValueMeta = convertRowMeta.getValueMeta( i );
+		        Map<String, Date> dateCache = data.dateCaches.get( i );
+		        if ( dateCache != null && value != null ) {
+		          Date date = dateCache.get( value );
+		          if ( date == null ) {
+		            date = (Date) targetValueMeta.convertData( sourceValueMeta, value );
+		            if ( date != null && dateCache.size() < DATE_CACHE_SIZE ) {
+		              dateCache.put( value, date );
+		            }
+		          }
+		          // rows get a copy, Dates are mutable
+		          outputRowData[i] = date == null ? null : new Date( date.getTime() );
+		          continue;
+		        }
 		        outputRowData[i] = targetValueMeta.convertData( sourceValueMeta, value );
 		      } // End of loop over fields...
-		      RowMetaInterface irow = getInputRowMeta();
-		      data.previousRow = irow == null ? outputRowData : irow.cloneRow( outputRowData ); // copy it to make
+		      for ( int i = data.nrfields; i < record.length; i++ ) {
+		        outputRowData[i] = record[i];
+		      }
 		    } catch ( Exception e ) {
 		      throw new KettleException( BaseMessages
 		        .getString( PKG, "OmnitureInput.Exception.CanNotParseFromOmniture" ), e );
@@ -235,6 +973,205 @@ public class OmnitureInput extends BaseStep implements StepInterface {
 		    return outputRowData;
 		  }
 	
+	  /**
+	   * Moves to the next record to put out. With a change index the records unchanged since the previous
+	   * run are skipped, and the index is replaced once all reports have been read.
+	   *
+	   * @return false if all reports have been read
+	   */
+	  private boolean nextRecord() throws KettleException {
+	    if ( data.changes == null ) {
+	      return nextReportRecord();
+	    }
+	    while ( nextReportRecord() ) {
+	      // the elements and dates of a record are its key, the metrics its digest
+	      long key = OmnitureChangeIndex.hash( OmnitureChangeIndex.SEED, data.buffer.getSegment() );
+	      if ( data.buffer.getReportName() != null ) {
+	        // report definitions with the same elements but other metrics have rows of their own
+	        key = OmnitureChangeIndex.hash( key, data.buffer.getReportName() );
+	      }
+	      Object[] parameters = data.buffer.getParameters();
+	      if ( parameters != null ) {
+	        // the same elements and dates of reports run for different input rows are different rows
+	        for ( int i = data.parameterOffset; i < data.outputRowMeta.size(); i++ ) {
+	          key = OmnitureChangeIndex.hash( key, String.valueOf( parameters[i - data.parameterOffset] ) );
+	        }
+	      }
+	      long digest = OmnitureChangeIndex.SEED;
+	      for ( int column = 0; column < data.headerNames.size(); column++ ) {
+	        if ( data.buffer.isMetric( column ) ) {
+	          digest = OmnitureChangeIndex.hash( digest, Double.doubleToLongBits( data.cursor.getMetric( column ) ) );
+	        } else {
+	          key = OmnitureChangeIndex.hash( key, data.cursor.getString( column ) );
+	        }
+	      }
+	      data.operation = data.changes.check( key, digest );
+	      if ( data.operation != null ) {
+	        return true;
+	      }
+	    }
+	    try {
+	      // replaced once the transformation delivered the rows, see commitChanges()
+	      data.changes.write();
+	    } catch ( IOException e ) {
+	      throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.ChangeIndexFailed" ), e );
+	    }
+	    data.changes = null;
+	    return false;
+	  }
+
+	  /**
+	   * Moves to the next record, switching over to the next report once the current one is exhausted.
+	   *
+	   * @return false if all reports have been read
+	   */
+	  private boolean nextReportRecord() throws KettleException {
+	    if ( meta.isSortedOutput() ) {
+	      return nextMergedRecord();
+	    }
+	    try {
+	      while ( data.cursor == null || !data.cursor.next() ) {
+	        closeBuffer();
+	        if ( data.resultIndex >= data.results.size() ) {
+	          return false;
+	        }
+	        openBuffer( nextResult() );
+	      }
+	      return true;
+	    } catch ( IOException e ) {
+	      throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.SpillFailed" ), e );
+	    } catch ( InterruptedException e ) {
+	      throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.ReportFailed" ), e );
+	    } catch ( ExecutionException e ) {
+	      throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.ReportFailed" ), e.getCause() );
+	    }
+	  }
+
+	  /**
+	   * Reads the sorted reports as one stream, merging them on date and elements once all of them are in.
+	   * The reports of every report definition are merged on their own, one definition after the other.
+	   */
+	  private boolean nextMergedRecord() throws KettleException {
+	    try {
+	      while ( true ) {
+	        if ( data.merger == null ) {
+	          if ( data.resultIndex >= data.results.size() ) {
+	            return false;
+	          }
+	          List<OmnitureReportBuffer> buffers = new ArrayList<OmnitureReportBuffer>();
+	          boolean merging = false;
+	          try {
+	            int start = data.resultIndex;
+	            while ( data.resultIndex < data.results.size() && sameDefinition( start, data.resultIndex ) ) {
+	              buffers.add( nextResult() );
+	            }
+	            data.merger = new OmnitureReportMerger( buffers );
+	            merging = true;
+	          } finally {
+	            if ( !merging ) {
+	              for ( OmnitureReportBuffer buffer : buffers ) {
+	                buffer.clear();
+	              }
+	            }
+	          }
+	        }
+	        if ( data.merger.next() ) {
+	          break;
+	        }
+	        closeBuffer();
+	        if ( data.resultIndex >= data.results.size() ) {
+	          return false;
+	        }
+	      }
+	      if ( data.buffer == null ) {
+	        // all merged reports share their columns
+	        resolveColumns( data.merger.getBuffer().getHeaderNames() );
+	      }
+	      data.buffer = data.merger.getBuffer();
+	      data.cursor = data.merger.getCursor();
+	      return true;
+	    } catch ( IOException e ) {
+	      throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.SpillFailed" ), e );
+	    } catch ( InterruptedException e ) {
+	      throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.ReportFailed" ), e );
+	    } catch ( ExecutionException e ) {
+	      throw new KettleException( BaseMessages.getString( PKG, "OmnitureInput.Exception.ReportFailed" ), e.getCause() );
+	    }
+	  }
+
+	  private boolean sameDefinition( int first, int second ) {
+	    return data.reportDefinitions == null || data.reportDefinitions.get( first ) == data.reportDefinitions.get( second );
+	  }
+
+	  /**
+	   * @return the next report, knowing the input row and the definition it was run for
+	   */
+	  private OmnitureReportBuffer nextResult() throws InterruptedException, ExecutionException {
+	    int index = data.resultIndex++;
+	    if ( data.scheduler != null ) {
+	      // the reports after this one move ahead of the rest
+	      data.scheduler.emitting( index );
+	    }
+	    OmnitureReportBuffer buffer = data.results.get( index ).get();
+	    if ( data.reportParameters != null ) {
+	      buffer.setParameters( data.reportParameters.get( index ) );
+	    }
+	    OmnitureReportDefinition definition = data.reportDefinitions == null ? null : data.reportDefinitions.get( index );
+	    if ( definition != null ) {
+	      buffer.setReportName( definition.getName() );
+	    }
+	    return buffer;
+	  }
+
+	  private void openBuffer( OmnitureReportBuffer buffer ) {
+	    data.buffer = buffer;
+	    data.cursor = buffer.cursor();
+	    if ( buffer.isSpilled() && log.isDetailed() ) {
+	      logDetailed( BaseMessages.getString( PKG, "OmnitureInput.Log.ReportSpilled", buffer.size() ) );
+	    }
+	    resolveColumns( buffer.getHeaderNames() );
+	  }
+
+	  private void resolveColumns( List<String> headerNames ) {
+	    data.headerNames = headerNames;
+	    // resolve the report column of every output field once
+	    data.fieldIndexes = new int[data.nrfields];
+	    for ( int i = 0; i < data.nrfields; i++ ) {
+	      data.fieldIndexes[i] = data.headerNames.indexOf( meta.getInputFields()[i].getName() );
+	    }
+	    // Date fields on the period of a trended report are built from its date parts, without parsing
+	    data.dateColumns = new int[DATE_PARTS.length];
+	    for ( int i = 0; i < DATE_PARTS.length; i++ ) {
+	      data.dateColumns[i] = data.headerNames.indexOf( DATE_PARTS[i] );
+	    }
+	    data.periodFields = new boolean[data.nrfields];
+	    for ( int i = 0; i < data.nrfields; i++ ) {
+	      data.periodFields[i] = data.dateColumns[0] >= 0
+	        && PERIOD_COLUMN.equals( meta.getInputFields()[i].getName() )
+	        && data.outputRowMeta.getValueMeta( i ).getType() == ValueMetaInterface.TYPE_DATE;
+	    }
+	  }
+
+	  private void closeBuffer() {
+	    if ( data.merger != null ) {
+	      // closes the cursors and clears all merged reports
+	      data.merger.close();
+	      data.merger = null;
+	      data.cursor = null;
+	      data.buffer = null;
+	      return;
+	    }
+	    if ( data.cursor != null ) {
+	      data.cursor.close();
+	      data.cursor = null;
+	    }
+	    if ( data.buffer != null ) {
+	      // removes any spill file left behind
+	      data.buffer.clear();
+	      data.buffer = null;
+	    }
+	  }
+
 	  /**
 	   * Build an empty row based on the meta-data.
 	   *
@@ -278,6 +1215,15 @@ public class OmnitureInput extends BaseStep implements StepInterface {
 	        return false;
 	      }
 	      
+	      if ( meta.isReplaySpool() ) {
+	        // replaying spooled responses doesn't need a connection
+	        if ( Const.isEmpty( environmentSubstitute( meta.getSpoolDirectory() ) ) ) {
+	          log.logError( BaseMessages.getString( PKG, "OmnitureInput.SpoolDirectoryMissing.Error" ) );
+	          return false;
+	        }
+	        return true;
+	      }
+	      
 	      // check username
 	      String realUser = environmentSubstitute( meta.getUserName() );
 	      if ( Const.isEmpty( realUser ) ) {
@@ -292,15 +1238,13 @@ public class OmnitureInput extends BaseStep implements StepInterface {
 	      }
 	      // check report suite id
 	      String realReportSuiteId = environmentSubstitute( meta.getReportSuiteId() );
-	      if ( Const.isEmpty( realReportSuiteId ) ) {
+	      if ( Const.isEmpty( realReportSuiteId ) && !( meta.isParametersFromInput() && !Const.isEmpty( meta.getSuiteField() ) ) ) {
 	        log.logError( BaseMessages.getString( PKG, "OmnitureInput.ReportSuiteIdMissing.Error" ) );
 	        return false;
 	      }
 	      try{
-	      data.client = new AnalyticsClientBuilder()
-	    		  .setEndpoint("api2.omniture.com")
-	    		  .authenticateWithSecret(realUser, realSecret)
-	    		  .build();
+	      data.account = realUser;
+	      data.transport = OmnitureHttpTransport.forMeta( meta, this );
 	      
 	        return true;
 	      }  catch ( Exception e ) {
@@ -311,6 +1255,37 @@ public class OmnitureInput extends BaseStep implements StepInterface {
 	    return false;
 	  }
 
+	/**
+	 * Called by PDI when the transformation is stopped. Cancels the reports
+	 * still queued in Omniture and interrupts the jobs waiting for them.
+	 */
+	public void stopRunning( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+	  // the data is set by init, before any report is queued
+	  if ( data != null ) {
+	    cancelReports();
+	  }
+	  super.stopRunning( smi, sdi );
+	}
+
+	private void cancelReports() {
+	  // interrupt first, so that no job fetches a report after it was cancelled
+	  if ( data.scheduler != null ) {
+	    data.scheduler.shutdownNow();
+	  }
+	  if ( data.executor != null ) {
+	    data.executor.shutdownNow();
+	  }
+	  if ( data.joinExecutor != null ) {
+	    data.joinExecutor.shutdownNow();
+	  }
+	  if ( data.session != null && data.session.getPoller() != null ) {
+	    int cancelled = data.session.getPoller().cancelOutstanding();
+	    if ( cancelled > 0 && log.isDetailed() ) {
+	      logDetailed( BaseMessages.getString( PKG, "OmnitureInput.Log.ReportsCancelled", cancelled ) );
+	    }
+	  }
+	}
+
 	/**
 	 * This method is called by PDI once the step is done processing. 
 	 * 
@@ -338,6 +1313,38 @@ public class OmnitureInput extends BaseStep implements StepInterface {
 	        if ( data.convertRowMeta != null ) {
 	          data.convertRowMeta = null;
 	        }
+	        closeBuffer();
+	        cancelReports();
+	        data.scheduler = null;
+	        data.executor = null;
+	        data.joinExecutor = null;
+	        if ( data.conversionPool != null ) {
+	          data.conversionPool.shutdownNow();
+	          data.conversionPool = null;
+	        }
+	        if ( data.session != null ) {
+	          data.session.getPoller().shutdown();
+	          data.session = null;
+	        }
+	        if ( data.transport != null ) {
+	          data.transport.close();
+	          data.transport = null;
+	        }
+	        if ( data.results != null ) {
+	          // release the reports that were fetched but never read
+	          for ( int i = data.resultIndex; i < data.results.size(); i++ ) {
+	            Future<OmnitureReportBuffer> result = data.results.get( i );
+	            if ( result.isDone() && !result.isCancelled() ) {
+	              try {
+	                result.get().clear();
+	              } catch ( Exception e ) { /* Ignore */
+	              }
+	            } else {
+	              result.cancel( true );
+	            }
+	          }
+	          data.results = null;
+	        }
 	    } catch ( Exception e ) { /* Ignore */
 	    }
 	    super.dispose( smi, sdi );
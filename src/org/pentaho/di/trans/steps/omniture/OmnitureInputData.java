@@ -23,15 +23,19 @@
 package org.pentaho.di.trans.steps.omniture;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
 
-import com.adobe.analytics.client.AnalyticsClient;
-import com.adobe.analytics.client.domain.Record;
-
 /**
  * This class is part of the demo step plug-in implementation.
  * It demonstrates the basics of developing a plug-in step for PDI. 
@@ -57,18 +61,43 @@ public class OmnitureInputData extends BaseStepData implements StepDataInterface
 	public RowMetaInterface outputRowMeta;
 	public RowMetaInterface convertRowMeta;
 	public int nrfields;
-	public int recordIndex;
-	public AnalyticsClient client;
+	public int[] fieldIndexes;
+	public OmnitureTransport transport;
+	public String account;
 	public List<String> headerNames;
-	public List<Record> records;
-	public Object previousRow;
+	public ExecutorService executor;
+	public OmnitureReportScheduler scheduler;
+	public ExecutorService joinExecutor;
+	public OmnitureReportSession session;
+	public ForkJoinPool conversionPool;
+	public ThreadLocal<RowMetaInterface[]> conversionMetas;
+	public TimeZone timeZone;
+	public List<Map<String, Date>> dateCaches;
+	public int[] dateColumns;
+	public boolean[] periodFields;
+	public List<Future<OmnitureReportBuffer>> results;
+	public int resultIndex;
+	public OmnitureReportBuffer buffer;
+	public OmnitureReportBuffer.Cursor cursor;
+	public OmnitureReportMerger merger;
+	public OmnitureChangeIndex changes;
+	public String operation;
+	public int operationIndex;
+	public List<Object[]> reportParameters;
+	public List<OmnitureReportDefinition> reportDefinitions;
+	public Map<String, RowSet> targetRowSets;
+	public int reportNameIndex;
+	public int parameterOffset;
+	public int suiteIndex;
+	public int startDateIndex;
+	public int endDateIndex;
+	public int segmentsIndex;
 	
     public OmnitureInputData()
 	{
 		super();
-		recordIndex = 0;
+		resultIndex = 0;
 		headerNames = new ArrayList<String>();
-		records = new ArrayList<Record>();
 	}
 }
 	
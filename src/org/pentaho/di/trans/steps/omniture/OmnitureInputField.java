@@ -22,6 +22,9 @@
 
 package org.pentaho.di.trans.steps.omniture;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.row.ValueMeta;
@@ -29,6 +32,11 @@ import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.w3c.dom.Node;
 
+import com.adobe.analytics.client.domain.Report;
+import com.adobe.analytics.client.domain.ReportData;
+import com.adobe.analytics.client.domain.ReportElement;
+import com.adobe.analytics.client.domain.ReportMetric;
+
 /**
  * Describes an OmnitureStep field
  *
@@ -78,6 +86,63 @@ public class OmnitureInputField implements Cloneable {
     this( "" );
   }
 
+  /**
+   * Builds the fields of a report, typed from its metadata: Integer for date parts and
+   * whole-number metrics, Number for rates, currencies and other decimal metrics, Date
+   * for the period of trended reports and String for element values.
+   */
+  public static List<OmnitureInputField> fromReport( Report report ) {
+    List<OmnitureInputField> fields = new ArrayList<OmnitureInputField>();
+    fields.add( new OmnitureInputField( "name" ) );
+    ReportData first = report.getData() == null || report.getData().isEmpty() ? null : report.getData().get( 0 );
+    boolean byHour = false;
+    if ( first != null ) {
+      Integer[] parts = { first.getYear(), first.getMonth(), first.getDay(), first.getHour(), first.getMinute() };
+      String[] names = { "year", "month", "day", "hour", "minute" };
+      for ( int i = 0; i < parts.length; i++ ) {
+        if ( parts[i] != null ) {
+          OmnitureInputField field = new OmnitureInputField( names[i] );
+          field.setType( ValueMeta.TYPE_INTEGER );
+          field.setFormat( "#" );
+          field.setPrecision( 0 );
+          fields.add( field );
+        }
+      }
+      byHour = first.getHour() != null;
+    }
+    if ( report.getElements() != null ) {
+      for ( ReportElement element : report.getElements() ) {
+        OmnitureInputField field = new OmnitureInputField( element.getId() );
+        if ( "datetime".equals( element.getId() ) ) {
+          field.setType( ValueMeta.TYPE_DATE );
+          field.setFormat( byHour ? "yyyy-MM-dd HH:mm" : "yyyy-MM-dd" );
+        }
+        fields.add( field );
+      }
+    }
+    if ( report.getMetrics() != null ) {
+      for ( ReportMetric metric : report.getMetrics() ) {
+        OmnitureInputField field = new OmnitureInputField( metric.getId() );
+        int decimals = metric.getDecimals();
+        if ( decimals <= 0 && !"currency".equals( metric.getType() ) && !"percent".equals( metric.getType() ) ) {
+          // counts, including times in seconds
+          field.setType( ValueMeta.TYPE_INTEGER );
+          field.setFormat( "#" );
+          field.setPrecision( 0 );
+        } else {
+          if ( decimals <= 0 ) {
+            decimals = 2;
+          }
+          field.setType( ValueMeta.TYPE_NUMBER );
+          field.setFormat( "0." + Const.rightPad( "", decimals ).replace( ' ', '0' ) );
+          field.setPrecision( decimals );
+        }
+        fields.add( field );
+      }
+    }
+    return fields;
+  }
+
   public String getXML() {
     String retval = "";
 
@@ -23,8 +23,13 @@
 package org.pentaho.di.trans.steps.omniture;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
 
 import org.pentaho.di.core.CheckResult;
 import org.pentaho.di.core.CheckResultInterface;
@@ -49,9 +54,15 @@ import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStepMeta;
 import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepIOMeta;
+import org.pentaho.di.trans.step.StepIOMetaInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.step.errorhandling.Stream;
+import org.pentaho.di.trans.step.errorhandling.StreamIcon;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface.StreamType;
 import org.pentaho.di.trans.steps.omniture.OmnitureInput;
 import org.pentaho.di.trans.steps.omniture.OmnitureInputData;
 import org.pentaho.di.trans.steps.omniture.OmnitureInputField;
@@ -77,6 +88,64 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
   private String elements;
   private String metrics;
   private String segments;
+  /** Memory (in MB) the step may use to hold a report before spilling it to disk, empty for no limit */
+  private String memoryLimit;
+  /** Directory the raw report responses are spooled to, empty for none */
+  private String spoolDirectory;
+  /** Read the spooled responses instead of calling the API */
+  private boolean replaySpool;
+  /** Maximum number of metrics queued in one report, longer lists are split and joined again; empty for no split */
+  private String maxMetricsPerReport;
+  /** Number of values of the first element queued per report when fanning out a breakdown, empty for no fan-out */
+  private String fanOutValuesPerReport;
+  /** Queue one report per segment instead of one report filtered on all segments */
+  private boolean segmentFanOut;
+  /** Name of the output field holding the segment of the report, empty for none */
+  private String segmentField;
+  /** Response size (in MB) date chunks are sized for from the numbers of previous runs, empty for no chunks */
+  private String chunkTargetSize;
+  /** Number of threads converting records into rows, empty or 1 to convert on the step thread */
+  private String conversionThreads;
+  /** Download responses to a temporary file and parse them from a memory mapping */
+  private boolean downloadToFile;
+  /** Time zone dates are read in, empty for the default time zone */
+  private String timeZone;
+  /** Sort the output by date and elements so downstream steps can rely on the order */
+  private boolean sortedOutput;
+  /** Seconds to wait for a connection to the API, empty for the default */
+  private String connectTimeout;
+  /** Seconds to wait for response data from the API, empty for the default */
+  private String readTimeout;
+  /** Most reports in flight for the company across all steps of the JVM, empty for no limit */
+  private String maxReportsPerCompany;
+  /** Percentage of failed calls that suspends calls to the API for the company, empty for no circuit breaker */
+  private String circuitBreakerErrorRate;
+  /** Wait while calls to the API are suspended instead of failing right away */
+  private boolean circuitBreakerWait;
+  /** Minutes a report may take from queueing to download, empty for no limit */
+  private String reportTimeout;
+  /** Minutes a report may wait in the report queue before it is queued again, empty to never re-queue */
+  private String requeueAfter;
+  /** Minutes all reports of the step may take, empty for no limit */
+  private String stepTimeout;
+  /** File holding the row digests of the previous run, only new or changed rows are put out, empty to put out all rows */
+  private String changeIndexFile;
+  /** Name of the output field flagging rows as new (I) or changed (U), empty for none */
+  private String operationField;
+  /** Run the reports once for every input row, with the parameters it holds */
+  private boolean parametersFromInput;
+  /** Name of the input field holding the report suite id, empty for the report suite of the step */
+  private String suiteField;
+  /** Name of the input field holding the start date, empty for the start date of the step */
+  private String startDateField;
+  /** Name of the input field holding the end date, empty for the end date of the step */
+  private String endDateField;
+  /** Name of the input field holding the comma separated segment ids, empty for the segments of the step */
+  private String segmentsField;
+  /** Name of the output field holding the name of the report definition, empty for none */
+  private String reportNameField;
+  /** Named reports run together instead of the report of the step, empty for the report of the step */
+  private OmnitureReportDefinition[] reportDefinitions;
   /** The fields to return... */
   private OmnitureInputField[] inputFields;
   private int nrFields;
@@ -171,6 +240,282 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
   public void setDateGranularity( String dateGranularity ) {
     this.dateGranularity = dateGranularity;
   }
+
+  public String getMemoryLimit() {
+    return memoryLimit;
+  }
+
+  public void setMemoryLimit( String memoryLimit ) {
+    this.memoryLimit = memoryLimit;
+  }
+
+  public String getSpoolDirectory() {
+    return spoolDirectory;
+  }
+
+  public void setSpoolDirectory( String spoolDirectory ) {
+    this.spoolDirectory = spoolDirectory;
+  }
+
+  public boolean isReplaySpool() {
+    return replaySpool;
+  }
+
+  public void setReplaySpool( boolean replaySpool ) {
+    this.replaySpool = replaySpool;
+  }
+
+  public String getMaxMetricsPerReport() {
+    return maxMetricsPerReport;
+  }
+
+  public void setMaxMetricsPerReport( String maxMetricsPerReport ) {
+    this.maxMetricsPerReport = maxMetricsPerReport;
+  }
+
+  public String getFanOutValuesPerReport() {
+    return fanOutValuesPerReport;
+  }
+
+  public void setFanOutValuesPerReport( String fanOutValuesPerReport ) {
+    this.fanOutValuesPerReport = fanOutValuesPerReport;
+  }
+
+  public boolean isSegmentFanOut() {
+    return segmentFanOut;
+  }
+
+  public void setSegmentFanOut( boolean segmentFanOut ) {
+    this.segmentFanOut = segmentFanOut;
+  }
+
+  public String getSegmentField() {
+    return segmentField;
+  }
+
+  public void setSegmentField( String segmentField ) {
+    this.segmentField = segmentField;
+  }
+
+  public String getChunkTargetSize() {
+    return chunkTargetSize;
+  }
+
+  public void setChunkTargetSize( String chunkTargetSize ) {
+    this.chunkTargetSize = chunkTargetSize;
+  }
+
+  public String getConversionThreads() {
+    return conversionThreads;
+  }
+
+  public void setConversionThreads( String conversionThreads ) {
+    this.conversionThreads = conversionThreads;
+  }
+
+  public boolean isDownloadToFile() {
+    return downloadToFile;
+  }
+
+  public void setDownloadToFile( boolean downloadToFile ) {
+    this.downloadToFile = downloadToFile;
+  }
+
+  public String getTimeZone() {
+    return timeZone;
+  }
+
+  public void setTimeZone( String timeZone ) {
+    this.timeZone = timeZone;
+  }
+
+  public boolean isSortedOutput() {
+    return sortedOutput;
+  }
+
+  public void setSortedOutput( boolean sortedOutput ) {
+    this.sortedOutput = sortedOutput;
+  }
+
+  public String getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout( String connectTimeout ) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public String getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout( String readTimeout ) {
+    this.readTimeout = readTimeout;
+  }
+
+  public String getMaxReportsPerCompany() {
+    return maxReportsPerCompany;
+  }
+
+  public void setMaxReportsPerCompany( String maxReportsPerCompany ) {
+    this.maxReportsPerCompany = maxReportsPerCompany;
+  }
+
+  public String getCircuitBreakerErrorRate() {
+    return circuitBreakerErrorRate;
+  }
+
+  public void setCircuitBreakerErrorRate( String circuitBreakerErrorRate ) {
+    this.circuitBreakerErrorRate = circuitBreakerErrorRate;
+  }
+
+  public boolean isCircuitBreakerWait() {
+    return circuitBreakerWait;
+  }
+
+  public void setCircuitBreakerWait( boolean circuitBreakerWait ) {
+    this.circuitBreakerWait = circuitBreakerWait;
+  }
+
+  public String getReportTimeout() {
+    return reportTimeout;
+  }
+
+  public void setReportTimeout( String reportTimeout ) {
+    this.reportTimeout = reportTimeout;
+  }
+
+  public String getRequeueAfter() {
+    return requeueAfter;
+  }
+
+  public void setRequeueAfter( String requeueAfter ) {
+    this.requeueAfter = requeueAfter;
+  }
+
+  public String getStepTimeout() {
+    return stepTimeout;
+  }
+
+  public void setStepTimeout( String stepTimeout ) {
+    this.stepTimeout = stepTimeout;
+  }
+
+  public String getChangeIndexFile() {
+    return changeIndexFile;
+  }
+
+  public void setChangeIndexFile( String changeIndexFile ) {
+    this.changeIndexFile = changeIndexFile;
+  }
+
+  public String getOperationField() {
+    return operationField;
+  }
+
+  public void setOperationField( String operationField ) {
+    this.operationField = operationField;
+  }
+
+  public boolean isParametersFromInput() {
+    return parametersFromInput;
+  }
+
+  public void setParametersFromInput( boolean parametersFromInput ) {
+    this.parametersFromInput = parametersFromInput;
+  }
+
+  public String getSuiteField() {
+    return suiteField;
+  }
+
+  public void setSuiteField( String suiteField ) {
+    this.suiteField = suiteField;
+  }
+
+  public String getStartDateField() {
+    return startDateField;
+  }
+
+  public void setStartDateField( String startDateField ) {
+    this.startDateField = startDateField;
+  }
+
+  public String getEndDateField() {
+    return endDateField;
+  }
+
+  public void setEndDateField( String endDateField ) {
+    this.endDateField = endDateField;
+  }
+
+  public String getSegmentsField() {
+    return segmentsField;
+  }
+
+  public void setSegmentsField( String segmentsField ) {
+    this.segmentsField = segmentsField;
+  }
+
+  public String getReportNameField() {
+    return reportNameField;
+  }
+
+  public void setReportNameField( String reportNameField ) {
+    this.reportNameField = reportNameField;
+  }
+
+  public OmnitureReportDefinition[] getReportDefinitions() {
+    return reportDefinitions;
+  }
+
+  public void setReportDefinitions( OmnitureReportDefinition[] reportDefinitions ) {
+    this.reportDefinitions = reportDefinitions;
+    ioMeta = null;
+  }
+
+  /**
+   * Lists the output fields the rows are sorted on, most significant first: the date parts (or the period)
+   * followed by the elements in report order. A Sort rows step on a prefix of these fields is redundant.
+   *
+   * @return the sort fields, empty when the output isn't sorted or holds the rows of several report definitions,
+   *         which are sorted one definition after the other
+   */
+  public String[] getSortFields( VariableSpace space ) {
+    if ( !sortedOutput || reportDefinitions.length > 0 ) {
+      return new String[0];
+    }
+    return getSortFields( space, elements );
+  }
+
+  /**
+   * Lists the output fields the rows of a report definition are sorted on, as they arrive at its target step.
+   *
+   * @return the sort fields, empty when the output isn't sorted
+   */
+  public String[] getSortFields( VariableSpace space, OmnitureReportDefinition definition ) {
+    if ( !sortedOutput ) {
+      return new String[0];
+    }
+    return getSortFields( space, Const.isEmpty( definition.getElements() ) ? elements : definition.getElements() );
+  }
+
+  private String[] getSortFields( VariableSpace space, String elements ) {
+    List<String> sortFields = new ArrayList<String>();
+    List<String> keys = new ArrayList<String>( Arrays.asList( "year", "month", "day", "hour", "minute", "datetime" ) );
+    if ( !Const.isEmpty( elements ) ) {
+      keys.addAll( Arrays.asList( space.environmentSubstitute( elements ).split( "," ) ) );
+    }
+    for ( String key : keys ) {
+      for ( OmnitureInputField field : inputFields ) {
+        String fieldName = space.environmentSubstitute( field.getName() );
+        if ( key.trim().equals( fieldName ) && !sortFields.contains( fieldName ) ) {
+          sortFields.add( fieldName );
+        }
+      }
+    }
+    return sortFields.toArray( new String[sortFields.size()] );
+  }
   
   public void allocate( int nrfields ) {
     inputFields = new OmnitureInputField[nrfields];
@@ -196,6 +541,35 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
     startDate = dateFormat.format(calStart.getTime());
     dateGranularity = "DAY";
     segments = "";
+    memoryLimit = "";
+    spoolDirectory = "";
+    replaySpool = false;
+    maxMetricsPerReport = "";
+    fanOutValuesPerReport = "";
+    segmentFanOut = false;
+    segmentField = "";
+    chunkTargetSize = "";
+    conversionThreads = "";
+    downloadToFile = false;
+    timeZone = "";
+    sortedOutput = false;
+    connectTimeout = "";
+    readTimeout = "";
+    maxReportsPerCompany = "";
+    circuitBreakerErrorRate = "";
+    circuitBreakerWait = false;
+    reportTimeout = "";
+    requeueAfter = "";
+    stepTimeout = "";
+    changeIndexFile = "";
+    operationField = "";
+    parametersFromInput = false;
+    suiteField = "";
+    startDateField = "";
+    endDateField = "";
+    segmentsField = "";
+    reportNameField = "";
+    reportDefinitions = new OmnitureReportDefinition[0];
     allocate( 0 );
   }
 
@@ -203,6 +577,8 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
 		                 StepMeta nextStep, VariableSpace space, 
 		                 Repository repository, IMetaStore metaStore ) 
 		                		 throws KettleStepException {
+	    // the fields of the input rows driving the reports follow the report fields
+	    RowMetaInterface parameterFields = parametersFromInput ? r.clone() : null;
 	    r.clear();
 	    for ( int i = 0; i < inputFields.length; i++ ) {
 	      OmnitureInputField field = inputFields[i];
@@ -219,11 +595,48 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
 	        v.setDecimalSymbol( field.getDecimalSymbol() );
 	        v.setGroupingSymbol( field.getGroupSymbol() );
 	        v.setCurrencySymbol( field.getCurrencySymbol() );
+	        if ( type == ValueMetaBase.TYPE_DATE && !Const.isEmpty( timeZone ) ) {
+	          v.setDateFormatTimeZone( TimeZone.getTimeZone( space.environmentSubstitute( timeZone ) ) );
+	        }
 	        r.addValueMeta( v );
 	      } catch ( Exception e ) {
 	        throw new KettleStepException( e );
 	      }
 	    }
+	    if ( !Const.isEmpty( segmentField ) ) {
+	      try {
+	        ValueMetaInterface v = ValueMetaFactory.createValueMeta(
+	          space.environmentSubstitute( segmentField ), ValueMetaBase.TYPE_STRING );
+	        v.setOrigin( name );
+	        r.addValueMeta( v );
+	      } catch ( Exception e ) {
+	        throw new KettleStepException( e );
+	      }
+	    }
+	    if ( !Const.isEmpty( changeIndexFile ) && !Const.isEmpty( operationField ) ) {
+	      try {
+	        ValueMetaInterface v = ValueMetaFactory.createValueMeta(
+	          space.environmentSubstitute( operationField ), ValueMetaBase.TYPE_STRING );
+	        v.setLength( 1 );
+	        v.setOrigin( name );
+	        r.addValueMeta( v );
+	      } catch ( Exception e ) {
+	        throw new KettleStepException( e );
+	      }
+	    }
+	    if ( !Const.isEmpty( reportNameField ) ) {
+	      try {
+	        ValueMetaInterface v = ValueMetaFactory.createValueMeta(
+	          space.environmentSubstitute( reportNameField ), ValueMetaBase.TYPE_STRING );
+	        v.setOrigin( name );
+	        r.addValueMeta( v );
+	      } catch ( Exception e ) {
+	        throw new KettleStepException( e );
+	      }
+	    }
+	    if ( parameterFields != null ) {
+	      r.addRowMeta( parameterFields );
+	    }
   }
   
   public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
@@ -242,6 +655,10 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
         retval.inputFields[i] = (OmnitureInputField) inputFields[i].clone();
       }
     }
+    retval.reportDefinitions = new OmnitureReportDefinition[reportDefinitions.length];
+    for ( int i = 0; i < reportDefinitions.length; i++ ) {
+      retval.reportDefinitions[i] = (OmnitureReportDefinition) reportDefinitions[i].clone();
+    }
 
     return retval;
   }
@@ -258,6 +675,39 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
     retval.append( "    " ).append( XMLHandler.addTagValue( "elements", elements ) );
     retval.append( "    " ).append( XMLHandler.addTagValue( "metrics", metrics ) );
     retval.append( "    " ).append( XMLHandler.addTagValue( "segments", segments ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "memoryLimit", memoryLimit ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "spoolDirectory", spoolDirectory ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "replaySpool", replaySpool ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "maxMetricsPerReport", maxMetricsPerReport ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "fanOutValuesPerReport", fanOutValuesPerReport ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "segmentFanOut", segmentFanOut ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "segmentField", segmentField ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "chunkTargetSize", chunkTargetSize ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "conversionThreads", conversionThreads ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "downloadToFile", downloadToFile ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "timeZone", timeZone ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "sortedOutput", sortedOutput ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "connectTimeout", connectTimeout ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "readTimeout", readTimeout ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "maxReportsPerCompany", maxReportsPerCompany ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "circuitBreakerErrorRate", circuitBreakerErrorRate ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "circuitBreakerWait", circuitBreakerWait ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "reportTimeout", reportTimeout ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "requeueAfter", requeueAfter ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "stepTimeout", stepTimeout ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "changeIndexFile", changeIndexFile ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "operationField", operationField ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "parametersFromInput", parametersFromInput ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "suiteField", suiteField ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "startDateField", startDateField ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "endDateField", endDateField ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "segmentsField", segmentsField ) );
+    retval.append( "    " ).append( XMLHandler.addTagValue( "reportNameField", reportNameField ) );
+    retval.append( "    <reports>" + Const.CR );
+    for ( OmnitureReportDefinition definition : reportDefinitions ) {
+      retval.append( definition.getXML() );
+    }
+    retval.append( "      </reports>" + Const.CR );
     retval.append( "    <fields>" + Const.CR );
     for ( int i = 0; i < inputFields.length; i++ ) {
       OmnitureInputField field = inputFields[i];
@@ -281,6 +731,41 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
 	      elements = XMLHandler.getTagValue( stepnode, "elements" );
 	      metrics = XMLHandler.getTagValue( stepnode, "metrics" );
 	      segments = XMLHandler.getTagValue( stepnode, "segments" );
+	      memoryLimit = XMLHandler.getTagValue( stepnode, "memoryLimit" );
+	      spoolDirectory = XMLHandler.getTagValue( stepnode, "spoolDirectory" );
+	      replaySpool = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "replaySpool" ) );
+	      maxMetricsPerReport = XMLHandler.getTagValue( stepnode, "maxMetricsPerReport" );
+	      fanOutValuesPerReport = XMLHandler.getTagValue( stepnode, "fanOutValuesPerReport" );
+	      segmentFanOut = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "segmentFanOut" ) );
+	      segmentField = XMLHandler.getTagValue( stepnode, "segmentField" );
+	      chunkTargetSize = XMLHandler.getTagValue( stepnode, "chunkTargetSize" );
+	      conversionThreads = XMLHandler.getTagValue( stepnode, "conversionThreads" );
+	      downloadToFile = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "downloadToFile" ) );
+	      timeZone = XMLHandler.getTagValue( stepnode, "timeZone" );
+	      sortedOutput = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "sortedOutput" ) );
+	      connectTimeout = XMLHandler.getTagValue( stepnode, "connectTimeout" );
+	      readTimeout = XMLHandler.getTagValue( stepnode, "readTimeout" );
+	      maxReportsPerCompany = XMLHandler.getTagValue( stepnode, "maxReportsPerCompany" );
+	      circuitBreakerErrorRate = XMLHandler.getTagValue( stepnode, "circuitBreakerErrorRate" );
+	      circuitBreakerWait = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "circuitBreakerWait" ) );
+	      reportTimeout = XMLHandler.getTagValue( stepnode, "reportTimeout" );
+	      requeueAfter = XMLHandler.getTagValue( stepnode, "requeueAfter" );
+	      stepTimeout = XMLHandler.getTagValue( stepnode, "stepTimeout" );
+	      changeIndexFile = XMLHandler.getTagValue( stepnode, "changeIndexFile" );
+	      operationField = XMLHandler.getTagValue( stepnode, "operationField" );
+	      parametersFromInput = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "parametersFromInput" ) );
+	      suiteField = XMLHandler.getTagValue( stepnode, "suiteField" );
+	      startDateField = XMLHandler.getTagValue( stepnode, "startDateField" );
+	      endDateField = XMLHandler.getTagValue( stepnode, "endDateField" );
+	      segmentsField = XMLHandler.getTagValue( stepnode, "segmentsField" );
+	      reportNameField = XMLHandler.getTagValue( stepnode, "reportNameField" );
+
+	      Node reports = XMLHandler.getSubNode( stepnode, "reports" );
+	      int nrReports = XMLHandler.countNodes( reports, "report" );
+	      reportDefinitions = new OmnitureReportDefinition[nrReports];
+	      for ( int i = 0; i < nrReports; i++ ) {
+	        reportDefinitions[i] = new OmnitureReportDefinition( XMLHandler.getSubNodeByNr( reports, "report", i ) );
+	      }
 
 	      Node fields = XMLHandler.getSubNode( stepnode, "fields" );
 	      int nrFields = XMLHandler.countNodes( fields, "field" );
@@ -312,6 +797,47 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
 	      elements = rep.getStepAttributeString( id_step, "elements" );
 	      metrics = rep.getStepAttributeString( id_step, "metrics" );
 	      segments = rep.getStepAttributeString( id_step, "segments" );
+	      memoryLimit = rep.getStepAttributeString( id_step, "memoryLimit" );
+	      spoolDirectory = rep.getStepAttributeString( id_step, "spoolDirectory" );
+	      replaySpool = rep.getStepAttributeBoolean( id_step, "replaySpool" );
+	      maxMetricsPerReport = rep.getStepAttributeString( id_step, "maxMetricsPerReport" );
+	      fanOutValuesPerReport = rep.getStepAttributeString( id_step, "fanOutValuesPerReport" );
+	      segmentFanOut = rep.getStepAttributeBoolean( id_step, "segmentFanOut" );
+	      segmentField = rep.getStepAttributeString( id_step, "segmentField" );
+	      chunkTargetSize = rep.getStepAttributeString( id_step, "chunkTargetSize" );
+	      conversionThreads = rep.getStepAttributeString( id_step, "conversionThreads" );
+	      downloadToFile = rep.getStepAttributeBoolean( id_step, "downloadToFile" );
+	      timeZone = rep.getStepAttributeString( id_step, "timeZone" );
+	      sortedOutput = rep.getStepAttributeBoolean( id_step, "sortedOutput" );
+	      connectTimeout = rep.getStepAttributeString( id_step, "connectTimeout" );
+	      readTimeout = rep.getStepAttributeString( id_step, "readTimeout" );
+	      maxReportsPerCompany = rep.getStepAttributeString( id_step, "maxReportsPerCompany" );
+	      circuitBreakerErrorRate = rep.getStepAttributeString( id_step, "circuitBreakerErrorRate" );
+	      circuitBreakerWait = rep.getStepAttributeBoolean( id_step, "circuitBreakerWait" );
+	      reportTimeout = rep.getStepAttributeString( id_step, "reportTimeout" );
+	      requeueAfter = rep.getStepAttributeString( id_step, "requeueAfter" );
+	      stepTimeout = rep.getStepAttributeString( id_step, "stepTimeout" );
+	      changeIndexFile = rep.getStepAttributeString( id_step, "changeIndexFile" );
+	      operationField = rep.getStepAttributeString( id_step, "operationField" );
+	      parametersFromInput = rep.getStepAttributeBoolean( id_step, "parametersFromInput" );
+	      suiteField = rep.getStepAttributeString( id_step, "suiteField" );
+	      startDateField = rep.getStepAttributeString( id_step, "startDateField" );
+	      endDateField = rep.getStepAttributeString( id_step, "endDateField" );
+	      segmentsField = rep.getStepAttributeString( id_step, "segmentsField" );
+	      reportNameField = rep.getStepAttributeString( id_step, "reportNameField" );
+
+	      int nrReports = rep.countNrStepAttributes( id_step, "report_name" );
+	      reportDefinitions = new OmnitureReportDefinition[nrReports];
+	      for ( int i = 0; i < nrReports; i++ ) {
+	        OmnitureReportDefinition definition = new OmnitureReportDefinition();
+	        definition.setName( rep.getStepAttributeString( id_step, i, "report_name" ) );
+	        definition.setElements( rep.getStepAttributeString( id_step, i, "report_elements" ) );
+	        definition.setMetrics( rep.getStepAttributeString( id_step, i, "report_metrics" ) );
+	        definition.setSegments( rep.getStepAttributeString( id_step, i, "report_segments" ) );
+	        definition.setDateGranularity( rep.getStepAttributeString( id_step, i, "report_date_granularity" ) );
+	        definition.setTargetStepname( rep.getStepAttributeString( id_step, i, "report_target_step" ) );
+	        reportDefinitions[i] = definition;
+	      }
 
 	      int nrFields = rep.countNrStepAttributes( id_step, "field_name" );
 
@@ -349,6 +875,46 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
 	      rep.saveStepAttribute( id_transformation, id_step, "elements", elements );
 	      rep.saveStepAttribute( id_transformation, id_step, "metrics", metrics );
 	      rep.saveStepAttribute( id_transformation, id_step, "segments", segments );
+	      rep.saveStepAttribute( id_transformation, id_step, "memoryLimit", memoryLimit );
+	      rep.saveStepAttribute( id_transformation, id_step, "spoolDirectory", spoolDirectory );
+	      rep.saveStepAttribute( id_transformation, id_step, "replaySpool", replaySpool );
+	      rep.saveStepAttribute( id_transformation, id_step, "maxMetricsPerReport", maxMetricsPerReport );
+	      rep.saveStepAttribute( id_transformation, id_step, "fanOutValuesPerReport", fanOutValuesPerReport );
+	      rep.saveStepAttribute( id_transformation, id_step, "segmentFanOut", segmentFanOut );
+	      rep.saveStepAttribute( id_transformation, id_step, "segmentField", segmentField );
+	      rep.saveStepAttribute( id_transformation, id_step, "chunkTargetSize", chunkTargetSize );
+	      rep.saveStepAttribute( id_transformation, id_step, "conversionThreads", conversionThreads );
+	      rep.saveStepAttribute( id_transformation, id_step, "downloadToFile", downloadToFile );
+	      rep.saveStepAttribute( id_transformation, id_step, "timeZone", timeZone );
+	      rep.saveStepAttribute( id_transformation, id_step, "sortedOutput", sortedOutput );
+	      rep.saveStepAttribute( id_transformation, id_step, "connectTimeout", connectTimeout );
+	      rep.saveStepAttribute( id_transformation, id_step, "readTimeout", readTimeout );
+	      rep.saveStepAttribute( id_transformation, id_step, "maxReportsPerCompany", maxReportsPerCompany );
+	      rep.saveStepAttribute( id_transformation, id_step, "circuitBreakerErrorRate", circuitBreakerErrorRate );
+	      rep.saveStepAttribute( id_transformation, id_step, "circuitBreakerWait", circuitBreakerWait );
+	      rep.saveStepAttribute( id_transformation, id_step, "reportTimeout", reportTimeout );
+	      rep.saveStepAttribute( id_transformation, id_step, "requeueAfter", requeueAfter );
+	      rep.saveStepAttribute( id_transformation, id_step, "stepTimeout", stepTimeout );
+	      rep.saveStepAttribute( id_transformation, id_step, "changeIndexFile", changeIndexFile );
+	      rep.saveStepAttribute( id_transformation, id_step, "operationField", operationField );
+	      rep.saveStepAttribute( id_transformation, id_step, "parametersFromInput", parametersFromInput );
+	      rep.saveStepAttribute( id_transformation, id_step, "suiteField", suiteField );
+	      rep.saveStepAttribute( id_transformation, id_step, "startDateField", startDateField );
+	      rep.saveStepAttribute( id_transformation, id_step, "endDateField", endDateField );
+	      rep.saveStepAttribute( id_transformation, id_step, "segmentsField", segmentsField );
+	      rep.saveStepAttribute( id_transformation, id_step, "reportNameField", reportNameField );
+
+	      for ( int i = 0; i < reportDefinitions.length; i++ ) {
+	        OmnitureReportDefinition definition = reportDefinitions[i];
+	        rep.saveStepAttribute( id_transformation, id_step, i, "report_name", definition.getName() );
+	        rep.saveStepAttribute( id_transformation, id_step, i, "report_elements", definition.getElements() );
+	        rep.saveStepAttribute( id_transformation, id_step, i, "report_metrics", definition.getMetrics() );
+	        rep.saveStepAttribute( id_transformation, id_step, i, "report_segments", definition.getSegments() );
+	        rep.saveStepAttribute( id_transformation, id_step, i, "report_date_granularity",
+	          definition.getDateGranularity() );
+	        rep.saveStepAttribute( id_transformation, id_step, i, "report_target_step",
+	          definition.getTargetStep() != null ? definition.getTargetStep().getName() : definition.getTargetStepname() );
+	      }
 
 	      for ( int i = 0; i < inputFields.length; i++ ) {
 	        OmnitureInputField field = inputFields[i];
@@ -374,7 +940,17 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
 	    CheckResult cr;
 
 	    // See if we get input...
-	    if ( input.length > 0 ) {
+	    if ( parametersFromInput ) {
+	      if ( input.length == 0 ) {
+	        cr =
+	          new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString(
+	            PKG, "OmnitureInputMeta.CheckResult.NoParameterInput" ), stepMeta );
+	      } else {
+	        cr =
+	          new CheckResult( CheckResult.TYPE_RESULT_OK, BaseMessages.getString(
+	            PKG, "OmnitureInputMeta.CheckResult.ParameterInput" ), stepMeta );
+	      }
+	    } else if ( input.length > 0 ) {
 	      cr =
 	        new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString(
 	          PKG, "OmnitureInputMeta.CheckResult.NoInputExpected" ), stepMeta );
@@ -410,7 +986,7 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
 	    remarks.add( cr );
 	    
 	    // check reportSuiteId
-	    if ( Const.isEmpty( reportSuiteId ) ) {
+	    if ( Const.isEmpty( reportSuiteId ) && !( parametersFromInput && !Const.isEmpty( suiteField ) ) ) {
 	      cr =
 	        new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString(
 	          PKG, "OmnitureInputMeta.CheckResult.NoReportSuiteId" ), stepMeta );
@@ -432,6 +1008,82 @@ public class OmnitureInputMeta extends BaseStepMeta implements StepMetaInterface
 	          PKG, "OmnitureInputMeta.CheckResult.FieldsOk" ), stepMeta );
 	    }
 	    remarks.add( cr );
+
+	    // report definitions are told apart by their names
+	    Set<String> reportNames = new HashSet<String>();
+	    for ( OmnitureReportDefinition definition : reportDefinitions ) {
+	      if ( Const.isEmpty( definition.getName() ) || !reportNames.add( definition.getName() ) ) {
+	        remarks.add( new CheckResult( CheckResult.TYPE_RESULT_ERROR, BaseMessages.getString(
+	          PKG, "OmnitureInputMeta.CheckResult.ReportNameNotUnique", Const.NVL( definition.getName(), "" ) ),
+	          stepMeta ) );
+	      }
+	    }
+
+	    // declare the output order
+	    if ( sortedOutput && reportDefinitions.length > 0 ) {
+	      // the rows of every definition are sorted on their own fields
+	      for ( OmnitureReportDefinition definition : reportDefinitions ) {
+	        String[] sortFields = getSortFields( space, definition );
+	        remarks.add( new CheckResult( sortFields.length == 0 ? CheckResult.TYPE_RESULT_WARNING
+	          : CheckResult.TYPE_RESULT_OK, BaseMessages.getString( PKG, "OmnitureInputMeta.CheckResult.ReportSortedOutput",
+	            Const.NVL( definition.getName(), "" ), Arrays.toString( sortFields ) ), stepMeta ) );
+	      }
+	    } else if ( sortedOutput ) {
+	      String[] sortFields = getSortFields( space );
+	      if ( sortFields.length == 0 ) {
+	        cr =
+	          new CheckResult( CheckResult.TYPE_RESULT_WARNING, BaseMessages.getString(
+	            PKG, "OmnitureInputMeta.CheckResult.NoSortFields" ), stepMeta );
+	      } else {
+	        cr =
+	          new CheckResult( CheckResult.TYPE_RESULT_OK, BaseMessages.getString(
+	            PKG, "OmnitureInputMeta.CheckResult.SortedOutput", Arrays.toString( sortFields ) ), stepMeta );
+	      }
+	      remarks.add( cr );
+	    }
+	  }
+
+	  /**
+	   * Declares a target stream for every report definition sending its rows to a step of its own.
+	   */
+	  @Override
+	  public StepIOMetaInterface getStepIOMeta() {
+	    if ( ioMeta == null ) {
+	      ioMeta = new StepIOMeta( true, true, true, false, false, true );
+	      for ( OmnitureReportDefinition definition : reportDefinitions ) {
+	        if ( definition.getTargetStep() != null ) {
+	          ioMeta.addStream( new Stream( StreamType.TARGET, definition.getTargetStep(), BaseMessages.getString(
+	            PKG, "OmnitureInputMeta.TargetStream.Description", definition.getName() ), StreamIcon.TARGET,
+	            definition ) );
+	        }
+	      }
+	    }
+	    return ioMeta;
+	  }
+
+	  @Override
+	  public void searchInfoAndTargetSteps( List<StepMeta> steps ) {
+	    for ( OmnitureReportDefinition definition : reportDefinitions ) {
+	      definition.setTargetStep( StepMeta.findStep( steps, definition.getTargetStepname() ) );
+	    }
+	    ioMeta = null;
+	  }
+
+	  @Override
+	  public void handleStreamSelection( StreamInterface stream ) {
+	    // the subject of the stream is the definition it was declared for
+	    for ( OmnitureReportDefinition definition : reportDefinitions ) {
+	      if ( definition == stream.getSubject() ) {
+	        definition.setTargetStep( stream.getStepMeta() );
+	        definition.setTargetStepname( stream.getStepMeta() != null ? stream.getStepMeta().getName() : null );
+	      }
+	    }
+	    ioMeta = null;
+	  }
+
+	  @Override
+	  public void resetStepIoMeta() {
+	    // the target streams follow the report definitions, see getStepIOMeta()
 	  }
 
 	  public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr,
@@ -0,0 +1,98 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input stream over a memory mapped file, so that its content is read from the page cache
+ * instead of being copied onto the heap.
+ *
+ * The file is mapped one window at a time, which keeps files larger than a single mapping
+ * readable and lets the pages already read go.
+ */
+public class OmnitureMappedInputStream extends InputStream {
+
+  private static final long WINDOW_SIZE = 64L * 1024L * 1024L;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long size;
+  private long position;
+  private MappedByteBuffer window;
+
+  public OmnitureMappedInputStream( File file ) throws IOException {
+    this.file = new RandomAccessFile( file, "r" );
+    this.channel = this.file.getChannel();
+    this.size = channel.size();
+  }
+
+  public int read() throws IOException {
+    return next() ? window.get() & 0xFF : -1;
+  }
+
+  public int read( byte[] bytes, int offset, int length ) throws IOException {
+    if ( length == 0 ) {
+      return 0;
+    }
+    if ( !next() ) {
+      return -1;
+    }
+    int count = Math.min( length, window.remaining() );
+    window.get( bytes, offset, count );
+    return count;
+  }
+
+  public int available() {
+    return window == null ? 0 : window.remaining();
+  }
+
+  public void close() throws IOException {
+    window = null;
+    file.close();
+  }
+
+  /**
+   * Maps the next window once the current one is read.
+   *
+   * @return false at the end of the file
+   */
+  private boolean next() throws IOException {
+    if ( window != null && window.hasRemaining() ) {
+      return true;
+    }
+    if ( position >= size ) {
+      return false;
+    }
+    long length = Math.min( WINDOW_SIZE, size - position );
+    window = channel.map( FileChannel.MapMode.READ_ONLY, position, length );
+    position += length;
+    return true;
+  }
+}
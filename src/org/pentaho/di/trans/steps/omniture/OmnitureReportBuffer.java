@@ -0,0 +1,304 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar holder for a decoded Omniture report.
+ *
+ * Element columns (element names and date parts) are dictionary encoded into int codes,
+ * metric columns are stored as primitive doubles. Rows are only materialized when they
+ * are read back through a {@link Cursor}.
+ *
+ * When a memory limit is given, the rows collected so far are moved to an
+ * {@link OmnitureSpillFile} every time the estimated size of the buffer goes past it.
+ * Cursors read the spilled rows back first, so the original row order is kept.
+ */
+public class OmnitureReportBuffer {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  /** rough heap cost of a dictionary entry on top of its characters */
+  private static final int DICTIONARY_ENTRY_OVERHEAD = 80;
+
+  private final List<String> headerNames;
+  private final int elementCount;
+  private final int metricCount;
+  private final long memoryLimit;
+
+  private final List<String> dictionary;
+  private final Map<String, Integer> dictionaryCodes;
+
+  private int[][] elementCodes;
+  private double[][] metricValues;
+  private int size;
+  private long dictionaryBytes;
+  private OmnitureSpillFile spillFile;
+  private String segment;
+  private Object[] parameters;
+  private String reportName;
+
+  /**
+   * @param headerNames
+   *          the report headers, element (and date) columns first followed by the metric columns
+   * @param metricCount
+   *          the number of metric columns at the end of the header list
+   * @param memoryLimit
+   *          the number of bytes the buffer may keep in memory before spilling to disk, 0 for no limit
+   */
+  public OmnitureReportBuffer( List<String> headerNames, int metricCount, long memoryLimit ) {
+    this.headerNames = new ArrayList<String>( headerNames );
+    this.metricCount = metricCount;
+    this.memoryLimit = memoryLimit;
+    this.elementCount = headerNames.size() - metricCount;
+    this.dictionary = new ArrayList<String>();
+    this.dictionaryCodes = new HashMap<String, Integer>();
+    this.elementCodes = new int[elementCount][INITIAL_CAPACITY];
+    this.metricValues = new double[metricCount][INITIAL_CAPACITY];
+    this.size = 0;
+  }
+
+  /**
+   * Appends a row given as element values and metric values.
+   */
+  public void addRow( String[] elements, double[] metrics ) throws IOException {
+    ensureCapacity( size + 1 );
+    for ( int i = 0; i < elementCount; i++ ) {
+      elementCodes[i][size] = encode( i < elements.length ? elements[i] : "" );
+    }
+    for ( int i = 0; i < metricCount; i++ ) {
+      metricValues[i][size] = i < metrics.length ? metrics[i] : Double.NaN;
+    }
+    size++;
+    spillIfNeeded();
+  }
+
+  /**
+   * @return the total number of rows, including the ones spilled to disk
+   */
+  public long size() {
+    return size + ( spillFile == null ? 0 : spillFile.getRowCount() );
+  }
+
+  public boolean isSpilled() {
+    return spillFile != null;
+  }
+
+  public List<String> getHeaderNames() {
+    return headerNames;
+  }
+
+  public int getElementCount() {
+    return elementCount;
+  }
+
+  public int getMetricCount() {
+    return metricCount;
+  }
+
+  public boolean isMetric( int column ) {
+    return column >= elementCount;
+  }
+
+  /**
+   * @return the ids of the segments the report was filtered on, comma separated, null for none
+   */
+  public String getSegment() {
+    return segment;
+  }
+
+  public void setSegment( String segment ) {
+    this.segment = segment;
+  }
+
+  /**
+   * @return the input row the report was run for, null if it wasn't driven by an input row
+   */
+  public Object[] getParameters() {
+    return parameters;
+  }
+
+  public void setParameters( Object[] parameters ) {
+    this.parameters = parameters;
+  }
+
+  /**
+   * @return the name of the report definition the report was run for, null for the report of the step
+   */
+  public String getReportName() {
+    return reportName;
+  }
+
+  public void setReportName( String reportName ) {
+    this.reportName = reportName;
+  }
+
+  /**
+   * @return a new cursor positioned before the first row
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Releases the column storage and removes the spill file, if any.
+   */
+  public void clear() {
+    if ( spillFile != null ) {
+      spillFile.delete();
+      spillFile = null;
+    }
+    dictionary.clear();
+    dictionaryCodes.clear();
+    dictionaryBytes = 0;
+    elementCodes = new int[elementCount][0];
+    metricValues = new double[metricCount][0];
+    size = 0;
+  }
+
+  private int encode( String value ) {
+    if ( value == null ) {
+      return -1;
+    }
+    Integer code = dictionaryCodes.get( value );
+    if ( code == null ) {
+      code = dictionary.size();
+      dictionary.add( value );
+      dictionaryCodes.put( value, code );
+      dictionaryBytes += DICTIONARY_ENTRY_OVERHEAD + 2L * value.length();
+    }
+    return code;
+  }
+
+  private long estimateMemory() {
+    return (long) size * ( 4 * elementCount + 8 * metricCount ) + dictionaryBytes;
+  }
+
+  private void spillIfNeeded() throws IOException {
+    if ( memoryLimit <= 0 || estimateMemory() <= memoryLimit ) {
+      return;
+    }
+    if ( spillFile == null ) {
+      spillFile = new OmnitureSpillFile( elementCount, metricCount );
+    }
+    spillFile.writeSegment( dictionary, elementCodes, metricValues, size );
+    size = 0;
+    dictionary.clear();
+    dictionaryCodes.clear();
+    dictionaryBytes = 0;
+  }
+
+  private String decode( int code ) {
+    return code < 0 ? null : dictionary.get( code );
+  }
+
+  private void ensureCapacity( int capacity ) {
+    int current = elementCount > 0 ? elementCodes[0].length : ( metricCount > 0 ? metricValues[0].length : 0 );
+    if ( capacity <= current ) {
+      return;
+    }
+    int newCapacity = Math.max( capacity, Math.max( INITIAL_CAPACITY, current + ( current >> 1 ) ) );
+    for ( int i = 0; i < elementCount; i++ ) {
+      elementCodes[i] = Arrays.copyOf( elementCodes[i], newCapacity );
+    }
+    for ( int i = 0; i < metricCount; i++ ) {
+      metricValues[i] = Arrays.copyOf( metricValues[i], newCapacity );
+    }
+  }
+
+  /**
+   * Sequential reader over the rows of the buffer. Values are decoded from the columns on demand.
+   */
+  public class Cursor {
+    private int row = -1;
+    private OmnitureSpillFile.Reader spilled;
+
+    /**
+     * Moves to the next row.
+     *
+     * @return false if there are no more rows
+     */
+    public boolean next() throws IOException {
+      if ( row < 0 && spillFile != null ) {
+        if ( spilled == null ) {
+          spilled = spillFile.reader();
+        }
+        if ( spilled.next() ) {
+          return true;
+        }
+        // spilled rows are exhausted, carry on with the rows still in memory
+        spilled = null;
+      }
+      if ( row + 1 >= size ) {
+        row = size;
+        return false;
+      }
+      row++;
+      return true;
+    }
+
+    /**
+     * @return the value of the column as it was returned by Omniture, metrics rendered like the client library does
+     */
+    public String getString( int column ) {
+      if ( spilled != null ) {
+        if ( column < elementCount ) {
+          return spilled.getString( column );
+        }
+        double value = spilled.getMetric( column - elementCount );
+        return Double.isNaN( value ) ? null : Double.toString( value );
+      }
+      if ( column < elementCount ) {
+        return decode( elementCodes[column][row] );
+      }
+      double value = metricValues[column - elementCount][row];
+      return Double.isNaN( value ) ? null : Double.toString( value );
+    }
+
+    /**
+     * @return the metric value of the column, NaN if it is empty
+     */
+    public double getMetric( int column ) {
+      if ( spilled != null ) {
+        return spilled.getMetric( column - elementCount );
+      }
+      return metricValues[column - elementCount][row];
+    }
+
+    /**
+     * Releases the spill file handle held by the cursor, if any.
+     */
+    public void close() {
+      if ( spilled != null ) {
+        spilled.close();
+        spilled = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.trans.step.StepMeta;
+import org.w3c.dom.Node;
+
+/**
+ * One named report of a step that runs several: its elements, metrics, segments and date
+ * granularity, and the step its rows go to. Settings left empty are taken from the step.
+ */
+public class OmnitureReportDefinition implements Cloneable {
+
+  private String name;
+  private String elements;
+  private String metrics;
+  private String segments;
+  private String dateGranularity;
+  private String targetStepname;
+  private StepMeta targetStep;
+
+  public OmnitureReportDefinition() {
+  }
+
+  public OmnitureReportDefinition( Node dnode ) {
+    setName( XMLHandler.getTagValue( dnode, "name" ) );
+    setElements( XMLHandler.getTagValue( dnode, "elements" ) );
+    setMetrics( XMLHandler.getTagValue( dnode, "metrics" ) );
+    setSegments( XMLHandler.getTagValue( dnode, "segments" ) );
+    setDateGranularity( XMLHandler.getTagValue( dnode, "dateGranularity" ) );
+    setTargetStepname( XMLHandler.getTagValue( dnode, "target_step" ) );
+  }
+
+  public String getXML() {
+    String retval = "";
+
+    retval += "      <report>" + Const.CR;
+    retval += "        " + XMLHandler.addTagValue( "name", getName() );
+    retval += "        " + XMLHandler.addTagValue( "elements", getElements() );
+    retval += "        " + XMLHandler.addTagValue( "metrics", getMetrics() );
+    retval += "        " + XMLHandler.addTagValue( "segments", getSegments() );
+    retval += "        " + XMLHandler.addTagValue( "dateGranularity", getDateGranularity() );
+    retval += "        " + XMLHandler.addTagValue( "target_step",
+      targetStep != null ? targetStep.getName() : getTargetStepname() );
+    retval += "        </report>" + Const.CR;
+    return retval;
+  }
+
+  public Object clone() {
+    try {
+      return super.clone();
+    } catch ( CloneNotSupportedException e ) {
+      return null;
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  /**
+   * @return the comma separated element ids, empty for the elements of the step
+   */
+  public String getElements() {
+    return elements;
+  }
+
+  public void setElements( String elements ) {
+    this.elements = elements;
+  }
+
+  /**
+   * @return the comma separated metric ids, empty for the metrics of the step
+   */
+  public String getMetrics() {
+    return metrics;
+  }
+
+  public void setMetrics( String metrics ) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return the comma separated segment ids, empty for the segments of the step
+   */
+  public String getSegments() {
+    return segments;
+  }
+
+  public void setSegments( String segments ) {
+    this.segments = segments;
+  }
+
+  /**
+   * @return the date granularity, empty for the date granularity of the step
+   */
+  public String getDateGranularity() {
+    return dateGranularity;
+  }
+
+  public void setDateGranularity( String dateGranularity ) {
+    this.dateGranularity = dateGranularity;
+  }
+
+  /**
+   * @return the name of the step the rows of the report go to, empty to send them over all hops
+   */
+  public String getTargetStepname() {
+    return targetStepname;
+  }
+
+  public void setTargetStepname( String targetStepname ) {
+    this.targetStepname = targetStepname;
+  }
+
+  public StepMeta getTargetStep() {
+    return targetStep;
+  }
+
+  public void setTargetStep( StepMeta targetStep ) {
+    this.targetStep = targetStep;
+  }
+}
@@ -0,0 +1,111 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the executors report jobs run on.
+ *
+ * Report jobs spend nearly all their time waiting for Omniture. On a JVM with virtual threads the
+ * jobs run on those, so many reports can be in flight without holding a platform thread each.
+ * Older JVMs fall back to a small pool of platform threads. Either way the executor is a fixed
+ * pool, with a FIFO queue unless the caller brings its own, so a join or sort task only ever waits
+ * for tasks submitted before it.
+ */
+public final class OmnitureReportExecutors {
+
+  /** most reports fetched at the same time on platform threads */
+  public static final int MAX_PLATFORM_REPORTS = 8;
+
+  /** most reports fetched at the same time on virtual threads */
+  public static final int MAX_VIRTUAL_REPORTS = 256;
+
+  private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+  private OmnitureReportExecutors() {
+  }
+
+  /**
+   * @return true if report jobs run on virtual threads
+   */
+  public static boolean isVirtual() {
+    return VIRTUAL_THREADS != null;
+  }
+
+  /**
+   * @return the number of threads an executor for the given number of report jobs gets
+   */
+  public static int poolSize( int jobs ) {
+    return Math.max( 1, Math.min( jobs, VIRTUAL_THREADS != null ? MAX_VIRTUAL_REPORTS : MAX_PLATFORM_REPORTS ) );
+  }
+
+  /**
+   * Creates an executor for the given number of report jobs.
+   */
+  public static ExecutorService newReportExecutor( int jobs ) {
+    return newReportExecutor( jobs, new LinkedBlockingQueue<Runnable>() );
+  }
+
+  /**
+   * Creates an executor for the given number of report jobs, queuing them in the given queue.
+   * All threads are started right away, so that every job goes through the queue.
+   */
+  public static ThreadPoolExecutor newReportExecutor( int jobs, BlockingQueue<Runnable> queue ) {
+    int threads = poolSize( jobs );
+    ThreadPoolExecutor executor = new ThreadPoolExecutor( threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+      VIRTUAL_THREADS != null ? VIRTUAL_THREADS : Executors.defaultThreadFactory() );
+    executor.prestartAllCoreThreads();
+    return executor;
+  }
+
+  /**
+   * Looks up Thread.ofVirtual() reflectively, the plugin is built for JVMs that don't have it.
+   *
+   * @return a factory of virtual threads, null if the JVM doesn't support them
+   */
+  private static ThreadFactory virtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+      Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" );
+      builder = builderClass.getMethod( "name", String.class, long.class ).invoke( builder, "Omniture report ", 0L );
+      ThreadFactory factory = (ThreadFactory) builderClass.getMethod( "factory" ).invoke( builder );
+      // preview builds only fail once a thread is created
+      factory.newThread( new Runnable() {
+        public void run() {
+        }
+      } );
+      return factory;
+    } catch ( Exception | LinkageError e ) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,433 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.adobe.analytics.client.ApiException;
+import com.adobe.analytics.client.JsonUtil;
+import com.adobe.analytics.client.domain.ReportDescription;
+import com.google.gson.JsonObject;
+
+/**
+ * Fetches a single report from Omniture: queues it, waits for it to be ready and decodes
+ * the response into an {@link OmnitureReportBuffer}. How long it waits is up to the
+ * {@link OmnitureReportWatchdog} of the session.
+ */
+public class OmnitureReportJob implements Callable<OmnitureReportBuffer> {
+
+  /** milliseconds to wait between two checks of a queued report */
+  public static final long POLL_INTERVAL = 3000L;
+
+  private static final String ENCODING = "UTF-8";
+  private static final long TRANSFER_SIZE = 8L * 1024L * 1024L;
+
+  private final OmnitureReportSession session;
+  private final ReportDescription description;
+  private final int sequence;
+  private final int part;
+  private boolean wholeReport = true;
+
+  /**
+   * @param session
+   *          the transport, poller and spool shared by the jobs of the step
+   * @param description
+   *          the report to fetch
+   * @param sequence
+   *          the position of the report in the output of the step
+   * @param part
+   *          the part of the report, for reports that were split by metric
+   */
+  public OmnitureReportJob( OmnitureReportSession session, ReportDescription description, int sequence, int part ) {
+    this.session = session;
+    this.description = description;
+    this.sequence = sequence;
+    this.part = part;
+  }
+
+  public ReportDescription getDescription() {
+    return description;
+  }
+
+  public int getSequence() {
+    return sequence;
+  }
+
+  public int getPart() {
+    return part;
+  }
+
+  /**
+   * @param wholeReport
+   *          false for a fan-out bucket, a metric part or a single segment of a split report, whose
+   *          numbers aren't recorded in the report statistics
+   */
+  public void setWholeReport( boolean wholeReport ) {
+    this.wholeReport = wholeReport;
+  }
+
+  public OmnitureReportBuffer call() throws IOException, InterruptedException {
+    final long[] bytes = new long[1];
+    long start = System.currentTimeMillis();
+    OmnitureReportBuffer buffer = fetch( new OmnitureTransport.ResponseHandler<OmnitureReportBuffer>() {
+      public OmnitureReportBuffer handle( InputStream response ) throws IOException {
+        CountingInputStream counted = new CountingInputStream( response );
+        OmnitureReportSpool spool = session.getSpool();
+        OutputStream spooled = spool == null ? null : spool.open( sequence, part );
+        boolean complete = false;
+        try {
+          // the spool gets a copy of what the parser reads, neither waits for the whole response
+          InputStream in = spooled == null ? counted : new TeeInputStream( counted, spooled );
+          OmnitureReportBuffer parsed;
+          if ( session.getDownloadDirectory() != null ) {
+            parsed = download( in, session.getDownloadDirectory() );
+          } else {
+            parsed = OmnitureReportParser.parse( new InputStreamReader( in, ENCODING ), session.getMemoryLimit(),
+              description );
+            IOUtils.copy( in, new NullOutputStream() );
+          }
+          bytes[0] = counted.getByteCount();
+          complete = true;
+          return parsed;
+        } finally {
+          if ( spooled != null ) {
+            spooled.close();
+            if ( !complete ) {
+              spool.discard( sequence, part );
+            }
+          }
+        }
+      }
+    } );
+    long latency = System.currentTimeMillis() - start;
+    if ( session.getStats() != null && wholeReport ) {
+      try {
+        session.getStats().record( description, buffer.size(), bytes[0], latency );
+      } catch ( IOException e ) {
+        // the numbers only size the chunks of later runs, not worth failing the report for
+      }
+    }
+    return buffer;
+  }
+
+  /**
+   * Writes the response to a temporary file and parses it from a memory mapping, so that the
+   * response doesn't pass through the heap other than in transfer sized pieces.
+   */
+  private OmnitureReportBuffer download( InputStream response, File directory ) throws IOException {
+    File file = File.createTempFile( "omniture-report-", ".json", directory );
+    try {
+      FileOutputStream out = new FileOutputStream( file );
+      try {
+        FileChannel channel = out.getChannel();
+        ReadableByteChannel source = Channels.newChannel( response );
+        long position = 0;
+        long count;
+        while ( ( count = channel.transferFrom( source, position, TRANSFER_SIZE ) ) > 0 ) {
+          position += count;
+        }
+      } finally {
+        out.close();
+      }
+      Reader reader = new InputStreamReader( new OmnitureMappedInputStream( file ), ENCODING );
+      try {
+        return OmnitureReportParser.parse( reader, session.getMemoryLimit(), description );
+      } finally {
+        reader.close();
+      }
+    } finally {
+      if ( !file.delete() ) {
+        // some platforms keep a file open while a mapping of it is still around
+        file.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * Fetches the raw response as a string, for small reports only.
+   */
+  public String fetch() throws IOException, InterruptedException {
+    return fetch( new OmnitureTransport.ResponseHandler<String>() {
+      public String handle( InputStream response ) throws IOException {
+        return IOUtils.toString( new InputStreamReader( response, ENCODING ) );
+      }
+    } );
+  }
+
+  /**
+   * Fetches the report and hands the response to the handler as it streams in. The report is queued
+   * and downloaded once for all identical requests in flight in this JVM; the requests that attached
+   * to it parse a copy of the response.
+   */
+  public <T> T fetch( OmnitureTransport.ResponseHandler<T> handler ) throws IOException, InterruptedException {
+    String key = session.getAccount() + '\n' + JsonUtil.GSON.toJson( description );
+    String company = OmnitureCompanyLimiter.companyOf( session.getAccount() );
+    OmnitureCompanyLimiter.acquire( company, session.getCompanyLimit() );
+    try {
+      OmnitureReportWatchdog watchdog = session.getWatchdog();
+      if ( watchdog == null ) {
+        return fetch( key, Long.MAX_VALUE, handler );
+      }
+      watchdog.checkStepDeadline();
+      return fetch( key, watchdog.deadline( System.currentTimeMillis() ), handler );
+    } finally {
+      OmnitureCompanyLimiter.release( company );
+    }
+  }
+
+  private <T> T fetch( final String key, final long deadline, final OmnitureTransport.ResponseHandler<T> handler )
+    throws IOException, InterruptedException {
+    long start = System.currentTimeMillis();
+    for ( int attempt = 0;; attempt++ ) {
+      final boolean[] queued = new boolean[1];
+      final AtomicReference<T> own = new AtomicReference<T>();
+      SharedReport shared;
+      try {
+        // waiting for the report of another step is bound by our own deadline
+        shared = OmnitureReportRegistry.fetch( key, deadline, new Callable<SharedReport>() {
+          public SharedReport call() throws IOException, InterruptedException {
+            queued[0] = true;
+            return download( key, queueAndWait( deadline ), deadline, handler, own );
+          }
+        } );
+      } catch ( TimeoutException e ) {
+        throw session.getWatchdog().attachedTimeout( System.currentTimeMillis() - start );
+      } catch ( ApiException e ) {
+        if ( queued[0] || attempt > 0 ) {
+          throw e;
+        }
+        // the report we attached to was cancelled by the step that queued it, queue our own
+        continue;
+      }
+      try {
+        if ( queued[0] ) {
+          return own.get();
+        }
+        if ( shared.file != null ) {
+          return shared.parse( handler );
+        }
+      } finally {
+        shared.release();
+      }
+      // attached after the owner started downloading, so it kept no copy for us
+      try {
+        return get( shared.reportId, deadline, handler );
+      } catch ( ApiException e ) {
+        if ( attempt > 0 ) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the queued report for the owning request. If other requests attached to it, the response
+   * is also copied to a temporary file as it streams in, for them to parse.
+   */
+  private <T> SharedReport download( String key, int reportId, long deadline,
+    final OmnitureTransport.ResponseHandler<T> handler, AtomicReference<T> own ) throws IOException,
+    InterruptedException {
+    if ( !OmnitureReportRegistry.isAttached( key ) ) {
+      own.set( get( reportId, deadline, handler ) );
+      return new SharedReport( reportId, null );
+    }
+    final File file = File.createTempFile( "omniture-shared-", ".json", session.getDownloadDirectory() );
+    boolean downloaded = false;
+    try {
+      own.set( get( reportId, deadline, new OmnitureTransport.ResponseHandler<T>() {
+        public T handle( InputStream response ) throws IOException {
+          OutputStream out = new FileOutputStream( file );
+          try {
+            InputStream tee = new TeeInputStream( response, out );
+            T result = handler.handle( tee );
+            // the attached requests need all of it, whatever our handler left unread
+            IOUtils.copy( tee, NullOutputStream.NULL_OUTPUT_STREAM );
+            return result;
+          } finally {
+            out.close();
+          }
+        }
+      } ) );
+      downloaded = true;
+      return new SharedReport( reportId, file );
+    } finally {
+      if ( !downloaded ) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Queues the report and waits for it to leave the report queue. A report stuck in the queue is
+   * queued again once, a report still queued at the deadline is cancelled.
+   */
+  private int queueAndWait( long deadline ) throws IOException, InterruptedException {
+    OmnitureReportPoller poller = session.getPoller();
+    OmnitureReportWatchdog watchdog = session.getWatchdog();
+    int reportId = queue();
+    if ( poller == null ) {
+      return reportId;
+    }
+    long start = System.currentTimeMillis();
+    long queued = start;
+    boolean requeued = false;
+    while ( true ) {
+      long stuckAt = watchdog == null ? Long.MAX_VALUE : watchdog.stuckAt( queued );
+      long now = System.currentTimeMillis();
+      if ( poller.await( reportId, Math.max( 0L, Math.min( stuckAt, deadline ) - now ) ) ) {
+        return reportId;
+      }
+      now = System.currentTimeMillis();
+      if ( now >= deadline ) {
+        cancel( reportId );
+        throw watchdog.timeout( reportId, now - start );
+      }
+      watchdog.stuck( reportId, poller.getQueuePosition( reportId ), now - queued, !requeued );
+      if ( !requeued ) {
+        cancel( reportId );
+        reportId = queue();
+        requeued = true;
+      }
+      queued = now;
+    }
+  }
+
+  private int queue() throws IOException {
+    int reportId = session.getTransport().callMethod( "Report.Queue",
+      JsonUtil.o( "reportDescription", description ), JsonObject.class ).get( "reportID" ).getAsInt();
+    if ( session.getPoller() != null ) {
+      session.getPoller().register( reportId );
+    }
+    return reportId;
+  }
+
+  /**
+   * Cancels a report this job gave up on.
+   */
+  private void cancel( int reportId ) {
+    release( reportId );
+    try {
+      session.getTransport().callMethod( "Report.Cancel", JsonUtil.GSON.toJson( JsonUtil.o( "reportID", reportId ) ) );
+    } catch ( IOException e ) {
+      // finished or gone in the meantime
+    }
+  }
+
+  /**
+   * Gets the queued report, waiting as long as Omniture says it isn't ready but not past the deadline.
+   */
+  private <T> T get( int reportId, long deadline, OmnitureTransport.ResponseHandler<T> handler ) throws IOException,
+    InterruptedException {
+    long start = System.currentTimeMillis();
+    OmnitureReportPoller poller = session.getPoller();
+    String request = JsonUtil.GSON.toJson( JsonUtil.o( "reportID", reportId ) );
+    while ( true ) {
+      try {
+        T response = session.getTransport().callMethod( "Report.Get", request, handler );
+        release( reportId );
+        return response;
+      } catch ( ApiException e ) {
+        if ( !"report_not_ready".equals( e.getError() ) ) {
+          release( reportId );
+          throw e;
+        }
+      }
+      long now = System.currentTimeMillis();
+      if ( now >= deadline ) {
+        cancel( reportId );
+        throw session.getWatchdog().timeout( reportId, now - start );
+      }
+      if ( poller != null ) {
+        poller.await( reportId, deadline - now );
+      } else {
+        Thread.sleep( Math.min( POLL_INTERVAL, deadline - now ) );
+      }
+    }
+  }
+
+  private void release( int reportId ) {
+    if ( session.getPoller() != null ) {
+      session.getPoller().release( reportId );
+    }
+  }
+
+  /**
+   * The report the owning request got, with the copy of the response kept for the attached ones. The
+   * copy is deleted once every request is done with it.
+   */
+  private static final class SharedReport implements OmnitureReportRegistry.Shared {
+    private final int reportId;
+    private final File file;
+    private int holders = -1;
+
+    SharedReport( int reportId, File file ) {
+      this.reportId = reportId;
+      this.file = file;
+    }
+
+    public synchronized void hold( int holders ) {
+      this.holders += holders + 1;
+      deleteIfUnused();
+    }
+
+    public synchronized void release() {
+      holders--;
+      deleteIfUnused();
+    }
+
+    private void deleteIfUnused() {
+      if ( holders == 0 && file != null ) {
+        file.delete();
+      }
+    }
+
+    <T> T parse( OmnitureTransport.ResponseHandler<T> handler ) throws IOException {
+      InputStream in = new BufferedInputStream( new FileInputStream( file ) );
+      try {
+        return handler.handle( in );
+      } finally {
+        in.close();
+      }
+    }
+  }
+}
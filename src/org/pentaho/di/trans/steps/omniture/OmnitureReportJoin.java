@@ -0,0 +1,304 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Joins sub-reports that were split by metric back into one wide report.
+ *
+ * All sub-reports share the same element (and date) columns, which make up the join key.
+ * Every key gets a single output row carrying the metrics of all sub-reports, metrics of a
+ * sub-report that doesn't have the key are left empty. The join is done with an in-memory
+ * hash table. If the sub-reports don't fit into the memory limit, they are first partitioned
+ * by key hash into buffers that spill to disk, and the partitions are joined one at a time and
+ * merged back on the position of their rows, so both ways give the rows in the same order.
+ */
+public class OmnitureReportJoin implements Callable<OmnitureReportBuffer> {
+
+  /** name of the column carrying the row position while joining partitions */
+  private static final String ORDINAL = "\u0000ordinal";
+
+  /** rough heap cost of a hash table entry on top of its values */
+  private static final int ENTRY_OVERHEAD = 120;
+
+  private final List<Future<OmnitureReportBuffer>> parts;
+  private final long memoryLimit;
+
+  /**
+   * @param parts
+   *          the sub-reports to join, in output column order
+   * @param memoryLimit
+   *          the memory limit in bytes, 0 for no limit
+   */
+  public OmnitureReportJoin( List<Future<OmnitureReportBuffer>> parts, long memoryLimit ) {
+    this.parts = parts;
+    this.memoryLimit = memoryLimit;
+  }
+
+  public OmnitureReportBuffer call() throws Exception {
+    if ( parts.size() == 1 ) {
+      return parts.get( 0 ).get();
+    }
+    List<OmnitureReportBuffer> buffers = new ArrayList<OmnitureReportBuffer>();
+    try {
+      for ( Future<OmnitureReportBuffer> part : parts ) {
+        buffers.add( part.get() );
+      }
+      return join( buffers );
+    } finally {
+      for ( OmnitureReportBuffer buffer : buffers ) {
+        buffer.clear();
+      }
+      // parts that weren't collected because the join failed or was interrupted
+      for ( int i = buffers.size(); i < parts.size(); i++ ) {
+        Future<OmnitureReportBuffer> part = parts.get( i );
+        if ( part.isDone() && !part.isCancelled() ) {
+          try {
+            part.get().clear();
+          } catch ( Exception e ) { /* Ignore */
+          }
+        } else {
+          part.cancel( true );
+        }
+      }
+    }
+  }
+
+  private OmnitureReportBuffer join( List<OmnitureReportBuffer> buffers ) throws IOException {
+    OmnitureReportBuffer first = buffers.get( 0 );
+    List<String> keyHeaders = first.getHeaderNames().subList( 0, first.getElementCount() );
+    List<String> headers = new ArrayList<String>( keyHeaders );
+    long rows = 0;
+    long rowBytes = ENTRY_OVERHEAD;
+    for ( OmnitureReportBuffer buffer : buffers ) {
+      if ( !keyHeaders.equals( buffer.getHeaderNames().subList( 0, buffer.getElementCount() ) ) ) {
+        throw new IOException( "Sub-reports " + keyHeaders + " and "
+          + buffer.getHeaderNames().subList( 0, buffer.getElementCount() ) + " can't be joined" );
+      }
+      headers.addAll( buffer.getHeaderNames().subList( buffer.getElementCount(), buffer.getHeaderNames().size() ) );
+      rows += buffer.size();
+      rowBytes += 8 * buffer.getMetricCount();
+    }
+    rowBytes += 40 * keyHeaders.size();
+    int metricCount = headers.size() - keyHeaders.size();
+    OmnitureReportBuffer result = new OmnitureReportBuffer( headers, metricCount, memoryLimit );
+    result.setSegment( first.getSegment() );
+
+    long estimate = rows * rowBytes;
+    if ( memoryLimit <= 0 || estimate <= memoryLimit ) {
+      joinInto( buffers, result, false );
+      return result;
+    }
+
+    // too big for a single hash table, partition every sub-report by key first; every row carries
+    // its position over all sub-reports, so the joined partitions can be merged back in the order
+    // the in-memory join gives
+    int partitions = (int) Math.min( 1024, estimate / memoryLimit + 1 ) * 2;
+    long partitionLimit = Math.max( 64 * 1024, memoryLimit / ( partitions * buffers.size() ) );
+    List<List<OmnitureReportBuffer>> partitioned = new ArrayList<List<OmnitureReportBuffer>>();
+    List<OmnitureReportBuffer> joined = new ArrayList<OmnitureReportBuffer>();
+    for ( int p = 0; p < partitions; p++ ) {
+      partitioned.add( new ArrayList<OmnitureReportBuffer>() );
+    }
+    try {
+      long ordinal = 0;
+      for ( OmnitureReportBuffer buffer : buffers ) {
+        for ( int p = 0; p < partitions; p++ ) {
+          partitioned.get( p ).add( new OmnitureReportBuffer( withOrdinal( buffer.getHeaderNames() ),
+            buffer.getMetricCount() + 1, partitionLimit ) );
+        }
+        OmnitureReportBuffer.Cursor cursor = buffer.cursor();
+        String[] elements = new String[buffer.getElementCount()];
+        double[] metrics = new double[buffer.getMetricCount() + 1];
+        while ( cursor.next() ) {
+          for ( int i = 0; i < elements.length; i++ ) {
+            elements[i] = cursor.getString( i );
+          }
+          for ( int i = 0; i < metrics.length - 1; i++ ) {
+            metrics[i] = cursor.getMetric( elements.length + i );
+          }
+          metrics[metrics.length - 1] = ordinal++;
+          int p = ( key( elements ).hashCode() & Integer.MAX_VALUE ) % partitions;
+          List<OmnitureReportBuffer> target = partitioned.get( p );
+          target.get( target.size() - 1 ).addRow( elements, metrics );
+        }
+        buffer.clear();
+      }
+      for ( List<OmnitureReportBuffer> partition : partitioned ) {
+        OmnitureReportBuffer part =
+          new OmnitureReportBuffer( withOrdinal( headers ), metricCount + 1, partitionLimit * buffers.size() );
+        joined.add( part );
+        joinInto( partition, part, true );
+        for ( OmnitureReportBuffer buffer : partition ) {
+          buffer.clear();
+        }
+      }
+      merge( joined, result );
+    } finally {
+      for ( List<OmnitureReportBuffer> partition : partitioned ) {
+        for ( OmnitureReportBuffer buffer : partition ) {
+          buffer.clear();
+        }
+      }
+      for ( OmnitureReportBuffer part : joined ) {
+        part.clear();
+      }
+    }
+    return result;
+  }
+
+  private static List<String> withOrdinal( List<String> headers ) {
+    List<String> result = new ArrayList<String>( headers );
+    result.add( ORDINAL );
+    return result;
+  }
+
+  /**
+   * Merges the joined partitions, each in ordinal order, into the result by the ordinal of their rows.
+   */
+  private static void merge( List<OmnitureReportBuffer> joined, OmnitureReportBuffer result ) throws IOException {
+    PriorityQueue<Head> heads = new PriorityQueue<Head>();
+    try {
+      for ( OmnitureReportBuffer part : joined ) {
+        Head head = new Head( part );
+        if ( head.next() ) {
+          heads.add( head );
+        } else {
+          head.cursor.close();
+        }
+      }
+      while ( !heads.isEmpty() ) {
+        Head head = heads.poll();
+        result.addRow( head.elements, head.metrics );
+        if ( head.next() ) {
+          heads.add( head );
+        } else {
+          head.cursor.close();
+        }
+      }
+    } finally {
+      for ( Head head : heads ) {
+        head.cursor.close();
+      }
+    }
+  }
+
+  /**
+   * The current row of a joined partition.
+   */
+  private static final class Head implements Comparable<Head> {
+    private final OmnitureReportBuffer.Cursor cursor;
+    private final String[] elements;
+    private final double[] metrics;
+    private double ordinal;
+
+    Head( OmnitureReportBuffer part ) {
+      cursor = part.cursor();
+      elements = new String[part.getElementCount()];
+      metrics = new double[part.getMetricCount() - 1];
+    }
+
+    boolean next() throws IOException {
+      if ( !cursor.next() ) {
+        return false;
+      }
+      for ( int i = 0; i < elements.length; i++ ) {
+        elements[i] = cursor.getString( i );
+      }
+      for ( int i = 0; i < metrics.length; i++ ) {
+        metrics[i] = cursor.getMetric( elements.length + i );
+      }
+      ordinal = cursor.getMetric( elements.length + metrics.length );
+      return true;
+    }
+
+    public int compareTo( Head other ) {
+      return Double.compare( ordinal, other.ordinal );
+    }
+  }
+
+  /**
+   * Hash joins the given sub-reports and appends one row per key to the result,
+   * keys in order of first appearance. With ordinals, the last metric of every sub-report
+   * and of the result is the row position, the result keeps the one of the first appearance.
+   */
+  private static void joinInto( List<OmnitureReportBuffer> buffers, OmnitureReportBuffer result, boolean ordinals )
+    throws IOException {
+    Map<String, Integer> index = new HashMap<String, Integer>();
+    List<String[]> keys = new ArrayList<String[]>();
+    List<double[]> values = new ArrayList<double[]>();
+    int extra = ordinals ? 1 : 0;
+    int metricCount = result.getMetricCount();
+    int offset = 0;
+    for ( OmnitureReportBuffer buffer : buffers ) {
+      OmnitureReportBuffer.Cursor cursor = buffer.cursor();
+      int elementCount = buffer.getElementCount();
+      int bufferMetrics = buffer.getMetricCount() - extra;
+      while ( cursor.next() ) {
+        String[] elements = new String[elementCount];
+        for ( int i = 0; i < elementCount; i++ ) {
+          elements[i] = cursor.getString( i );
+        }
+        String key = key( elements );
+        Integer row = index.get( key );
+        if ( row == null ) {
+          row = keys.size();
+          index.put( key, row );
+          keys.add( elements );
+          double[] metrics = new double[metricCount];
+          Arrays.fill( metrics, Double.NaN );
+          if ( ordinals ) {
+            metrics[metricCount - 1] = cursor.getMetric( elementCount + bufferMetrics );
+          }
+          values.add( metrics );
+        }
+        double[] metrics = values.get( row );
+        for ( int i = 0; i < bufferMetrics; i++ ) {
+          metrics[offset + i] = cursor.getMetric( elementCount + i );
+        }
+      }
+      offset += bufferMetrics;
+    }
+    for ( int i = 0; i < keys.size(); i++ ) {
+      result.addRow( keys.get( i ), values.get( i ) );
+    }
+  }
+
+  private static String key( String[] elements ) {
+    StringBuilder key = new StringBuilder();
+    for ( String element : elements ) {
+      key.append( element == null ? "\u0001" : element ).append( '\u0000' );
+    }
+    return key.toString();
+  }
+}
@@ -0,0 +1,145 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges report buffers that are each sorted by {@link OmnitureReportSorter} into one sorted stream.
+ *
+ * The merge keeps a cursor per buffer and a heap of the buffers ordered by their current row, so
+ * every row costs a heap update over the number of buffers. Rows with the same key come out in
+ * buffer order. Empty buffers are left out, all others must have the same columns.
+ */
+public class OmnitureReportMerger {
+
+  private final PriorityQueue<Source> heap;
+  private final List<Source> sources = new ArrayList<Source>();
+  private final List<OmnitureReportBuffer> buffers;
+  private Source current;
+
+  /**
+   * @param buffers
+   *          the sorted buffers, in the order rows with the same key should come out
+   */
+  public OmnitureReportMerger( List<OmnitureReportBuffer> buffers ) throws IOException {
+    this.buffers = buffers;
+    List<String> headers = null;
+    int elementCount = 0;
+    for ( OmnitureReportBuffer buffer : buffers ) {
+      if ( buffer.size() == 0 ) {
+        continue;
+      }
+      if ( headers == null ) {
+        headers = buffer.getHeaderNames();
+        elementCount = buffer.getElementCount();
+      } else if ( !headers.equals( buffer.getHeaderNames() ) ) {
+        throw new IOException( "Reports " + headers + " and " + buffer.getHeaderNames() + " can't be merged" );
+      }
+      sources.add( new Source( sources.size(), buffer ) );
+    }
+    final OmnitureReportSorter sorter =
+      new OmnitureReportSorter( headers == null ? new ArrayList<String>() : headers, elementCount );
+    heap = new PriorityQueue<Source>( Math.max( 1, sources.size() ), new Comparator<Source>() {
+      public int compare( Source a, Source b ) {
+        int result = sorter.compare( a.elements, b.elements );
+        return result != 0 ? result : a.order - b.order;
+      }
+    } );
+    for ( Source source : sources ) {
+      if ( source.advance() ) {
+        heap.add( source );
+      }
+    }
+  }
+
+  /**
+   * Moves to the next row in sort order.
+   *
+   * @return false if all buffers are exhausted
+   */
+  public boolean next() throws IOException {
+    if ( current != null && current.advance() ) {
+      heap.add( current );
+    }
+    current = heap.poll();
+    return current != null;
+  }
+
+  /**
+   * @return the buffer the current row comes from
+   */
+  public OmnitureReportBuffer getBuffer() {
+    return current.buffer;
+  }
+
+  /**
+   * @return the cursor positioned on the current row
+   */
+  public OmnitureReportBuffer.Cursor getCursor() {
+    return current.cursor;
+  }
+
+  /**
+   * Closes the cursors and clears all buffers.
+   */
+  public void close() {
+    for ( Source source : sources ) {
+      source.cursor.close();
+    }
+    for ( OmnitureReportBuffer buffer : buffers ) {
+      buffer.clear();
+    }
+    heap.clear();
+    current = null;
+  }
+
+  private static class Source {
+    private final int order;
+    private final OmnitureReportBuffer buffer;
+    private final OmnitureReportBuffer.Cursor cursor;
+    private final String[] elements;
+
+    private Source( int order, OmnitureReportBuffer buffer ) {
+      this.order = order;
+      this.buffer = buffer;
+      this.cursor = buffer.cursor();
+      this.elements = new String[buffer.getElementCount()];
+    }
+
+    private boolean advance() throws IOException {
+      if ( !cursor.next() ) {
+        return false;
+      }
+      for ( int i = 0; i < elements.length; i++ ) {
+        elements[i] = cursor.getString( i );
+      }
+      return true;
+    }
+  }
+}
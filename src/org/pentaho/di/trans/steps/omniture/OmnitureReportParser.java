@@ -0,0 +1,413 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.adobe.analytics.client.domain.ReportDescription;
+import com.adobe.analytics.client.domain.ReportDescriptionElement;
+import com.adobe.analytics.client.domain.ReportDescriptionMetric;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.internal.bind.JsonTreeReader;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads a Report.Get response straight into a report buffer.
+ *
+ * The nested breakdown data is flattened while it is being read: the tree is walked iteratively
+ * with an explicit stack holding the name, date and counts of every open level, and one row is
+ * emitted per leaf with the values of its parents carried along. Only the path to the current
+ * node is kept in memory, never the whole tree.
+ *
+ * The columns are the same as the ones of the Omniture client library: <code>name</code> (the top
+ * level name), the date parts present on the top level, one column per element holding the name
+ * at that level of the breakdown, and one column per metric.
+ *
+ * The element and metric ids are taken from the report description when it is known, so the data
+ * is streamed even if the response lists the ids after it. Otherwise data that comes first is
+ * kept as a tree until the ids are read.
+ */
+public class OmnitureReportParser {
+
+  private static final String[] DATE_PARTS = { "year", "month", "day", "hour", "minute" };
+
+  private final long memoryLimit;
+  private final List<String> elementIds = new ArrayList<String>();
+  private final List<String> metricIds = new ArrayList<String>();
+  private final List<String> segmentIds = new ArrayList<String>();
+  private boolean elementsRead;
+  private boolean metricsRead;
+  /** true if the ids were taken from the description, the ones in the response are only checked */
+  private boolean requested;
+
+  /** open levels of the breakdown, reused from one node to the next */
+  private final List<Level> stack = new ArrayList<Level>();
+  private boolean[] datePresent;
+  private OmnitureReportBuffer buffer;
+
+  private OmnitureReportParser( long memoryLimit ) {
+    this.memoryLimit = memoryLimit;
+  }
+
+  /**
+   * Parses a Report.Get response.
+   *
+   * @param in
+   *          the raw response, closed by the caller
+   * @param memoryLimit
+   *          the memory limit of the report buffer in bytes, 0 for no limit
+   */
+  public static OmnitureReportBuffer parse( Reader in, long memoryLimit ) throws IOException {
+    return parse( in, memoryLimit, null );
+  }
+
+  /**
+   * Parses a Report.Get response of the given report.
+   *
+   * @param in
+   *          the raw response, closed by the caller
+   * @param memoryLimit
+   *          the memory limit of the report buffer in bytes, 0 for no limit
+   * @param description
+   *          the report that was queued, null if it isn't known
+   */
+  public static OmnitureReportBuffer parse( Reader in, long memoryLimit, ReportDescription description )
+    throws IOException {
+    OmnitureReportParser parser = new OmnitureReportParser( memoryLimit );
+    if ( description != null && description.getMetrics() != null ) {
+      if ( description.getElements() != null ) {
+        for ( ReportDescriptionElement element : description.getElements() ) {
+          parser.elementIds.add( element.getId() );
+        }
+      }
+      for ( ReportDescriptionMetric metric : description.getMetrics() ) {
+        parser.metricIds.add( metric.getId() );
+      }
+      parser.elementsRead = true;
+      parser.metricsRead = true;
+      parser.requested = true;
+    }
+    return parser.read( new JsonReader( in ) );
+  }
+
+  private OmnitureReportBuffer read( JsonReader reader ) throws IOException {
+    reader.beginObject();
+    while ( reader.hasNext() ) {
+      if ( "report".equals( reader.nextName() ) ) {
+        readReport( reader );
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if ( buffer == null ) {
+      // no data at all, the columns are known without date parts
+      datePresent = new boolean[DATE_PARTS.length];
+      createBuffer();
+    }
+    buffer.setSegment( segmentIds.isEmpty() ? null : join( segmentIds ) );
+    return buffer;
+  }
+
+  private void readReport( JsonReader reader ) throws IOException {
+    JsonElement deferredData = null;
+    reader.beginObject();
+    while ( reader.hasNext() ) {
+      String name = reader.nextName();
+      if ( "elements".equals( name ) ) {
+        if ( requested ) {
+          checkIds( reader, "elements", elementIds );
+        } else {
+          readIds( reader, elementIds );
+        }
+        elementsRead = true;
+      } else if ( "metrics".equals( name ) ) {
+        if ( requested ) {
+          checkIds( reader, "metrics", metricIds );
+        } else {
+          readIds( reader, metricIds );
+        }
+        metricsRead = true;
+      } else if ( "segments".equals( name ) ) {
+        readIds( reader, segmentIds );
+      } else if ( "data".equals( name ) ) {
+        if ( elementsRead && metricsRead ) {
+          readData( reader );
+        } else {
+          // the columns aren't known yet, keep the data until the end of the report
+          deferredData = new JsonParser().parse( reader );
+        }
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if ( deferredData != null ) {
+      readData( new JsonTreeReader( deferredData ) );
+    }
+  }
+
+  /**
+   * Reads the ids the response lists and makes sure they are the ones the data is read with.
+   */
+  private static void checkIds( JsonReader reader, String kind, List<String> expected ) throws IOException {
+    List<String> ids = new ArrayList<String>();
+    readIds( reader, ids );
+    if ( !ids.equals( expected ) ) {
+      throw new IOException( "Report " + kind + " " + ids + " don't match the requested " + expected );
+    }
+  }
+
+  private static void readIds( JsonReader reader, List<String> ids ) throws IOException {
+    if ( reader.peek() == JsonToken.NULL ) {
+      reader.nextNull();
+      return;
+    }
+    reader.beginArray();
+    while ( reader.hasNext() ) {
+      String id = null;
+      reader.beginObject();
+      while ( reader.hasNext() ) {
+        if ( "id".equals( reader.nextName() ) ) {
+          id = reader.nextString();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      ids.add( id );
+    }
+    reader.endArray();
+  }
+
+  /**
+   * Walks the data tree, <code>depth</code> being the number of breakdowns entered.
+   */
+  private void readData( JsonReader reader ) throws IOException {
+    if ( reader.peek() == JsonToken.NULL ) {
+      reader.nextNull();
+      return;
+    }
+    reader.beginArray();
+    int depth = 0;
+    while ( true ) {
+      Level level;
+      if ( reader.hasNext() ) {
+        // next node of the array at the current depth
+        level = push( depth );
+        reader.beginObject();
+        if ( readNode( reader, level ) ) {
+          depth++;
+          continue;
+        }
+      } else {
+        reader.endArray();
+        if ( depth == 0 ) {
+          return;
+        }
+        // back to the parent, which may have fields after its breakdown
+        depth--;
+        level = stack.get( depth );
+        readNode( reader, level );
+      }
+      if ( !level.broken ) {
+        emit( depth );
+      }
+    }
+  }
+
+  private Level push( int depth ) {
+    if ( depth == stack.size() ) {
+      stack.add( new Level() );
+    }
+    Level level = stack.get( depth );
+    level.reset();
+    return level;
+  }
+
+  /**
+   * Reads the fields of a node up to its breakdown or the end of the node.
+   *
+   * @return true if positioned inside the breakdown of the node
+   */
+  private boolean readNode( JsonReader reader, Level level ) throws IOException {
+    while ( reader.hasNext() ) {
+      String name = reader.nextName();
+      if ( reader.peek() == JsonToken.NULL ) {
+        reader.nextNull();
+      } else if ( "name".equals( name ) ) {
+        level.name = reader.nextString();
+      } else if ( "counts".equals( name ) ) {
+        level.counts = readCounts( reader, level.counts );
+      } else if ( "breakdown".equals( name ) ) {
+        reader.beginArray();
+        if ( reader.hasNext() ) {
+          level.broken = true;
+          return true;
+        }
+        // an empty breakdown is no breakdown, the node is a row of its own
+        reader.endArray();
+      } else {
+        int part = datePart( name );
+        if ( part >= 0 ) {
+          level.date[part] = reader.nextString();
+        } else {
+          reader.skipValue();
+        }
+      }
+    }
+    reader.endObject();
+    return false;
+  }
+
+  private static int datePart( String name ) {
+    for ( int i = 0; i < DATE_PARTS.length; i++ ) {
+      if ( DATE_PARTS[i].equals( name ) ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private double[] readCounts( JsonReader reader, double[] counts ) throws IOException {
+    if ( counts == null || counts.length != metricIds.size() ) {
+      counts = new double[metricIds.size()];
+    }
+    Arrays.fill( counts, Double.NaN );
+    reader.beginArray();
+    for ( int i = 0; reader.hasNext(); i++ ) {
+      double count = Double.NaN;
+      JsonToken token = reader.peek();
+      if ( token == JsonToken.NULL ) {
+        reader.nextNull();
+      } else if ( token == JsonToken.NUMBER || token == JsonToken.STRING ) {
+        try {
+          count = Double.parseDouble( reader.nextString() );
+        } catch ( NumberFormatException e ) {
+          count = Double.NaN;
+        }
+      } else {
+        reader.skipValue();
+      }
+      if ( i < counts.length ) {
+        counts[i] = count;
+      }
+    }
+    reader.endArray();
+    return counts;
+  }
+
+  /**
+   * Emits the row of the leaf at the given depth.
+   */
+  private void emit( int depth ) throws IOException {
+    if ( buffer == null ) {
+      // like the client library, the date columns are the ones present on the first top level node
+      datePresent = new boolean[DATE_PARTS.length];
+      for ( int i = 0; i < DATE_PARTS.length; i++ ) {
+        datePresent[i] = stack.get( 0 ).date[i] != null;
+      }
+      createBuffer();
+    }
+    String[] elements = new String[buffer.getElementCount()];
+    int column = 0;
+    elements[column++] = stack.get( 0 ).name;
+    for ( int i = 0; i < DATE_PARTS.length; i++ ) {
+      if ( datePresent[i] ) {
+        elements[column++] = dateAt( depth, i );
+      }
+    }
+    for ( int i = 0; i < elementIds.size(); i++ ) {
+      elements[column++] = i <= depth ? stack.get( i ).name : null;
+    }
+    Level leaf = stack.get( depth );
+    double[] metrics = leaf.counts;
+    if ( metrics == null ) {
+      metrics = new double[metricIds.size()];
+      Arrays.fill( metrics, Double.NaN );
+    }
+    buffer.addRow( elements, metrics );
+  }
+
+  /**
+   * @return the given date part of the nearest level carrying it
+   */
+  private String dateAt( int depth, int part ) {
+    for ( int i = 0; i <= depth; i++ ) {
+      if ( stack.get( i ).date[part] != null ) {
+        return stack.get( i ).date[part];
+      }
+    }
+    return null;
+  }
+
+  private void createBuffer() {
+    List<String> headers = new ArrayList<String>();
+    headers.add( "name" );
+    for ( int i = 0; i < DATE_PARTS.length; i++ ) {
+      if ( datePresent[i] ) {
+        headers.add( DATE_PARTS[i] );
+      }
+    }
+    headers.addAll( elementIds );
+    headers.addAll( metricIds );
+    buffer = new OmnitureReportBuffer( headers, metricIds.size(), memoryLimit );
+  }
+
+  private static String join( List<String> ids ) {
+    StringBuilder joined = new StringBuilder();
+    for ( String id : ids ) {
+      if ( joined.length() > 0 ) {
+        joined.append( ',' );
+      }
+      joined.append( id );
+    }
+    return joined.toString();
+  }
+
+  /**
+   * An open node of the breakdown tree.
+   */
+  private static class Level {
+    private String name;
+    private final String[] date = new String[DATE_PARTS.length];
+    private double[] counts;
+    private boolean broken;
+
+    private void reset() {
+      name = null;
+      Arrays.fill( date, null );
+      if ( counts != null ) {
+        Arrays.fill( counts, Double.NaN );
+      }
+      broken = false;
+    }
+  }
+}
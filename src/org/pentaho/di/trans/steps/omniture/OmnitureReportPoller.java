@@ -0,0 +1,253 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.adobe.analytics.client.JsonUtil;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Keeps track of the reports queued by a step and waits for them with a single status call
+ * per interval.
+ *
+ * Instead of every report job polling Report.Get on its own, the jobs register the ids of
+ * their queued reports here. Once per interval the poller lists the report queue with
+ * Report.GetQueue and releases the jobs whose reports have left the queue, so that only
+ * finished reports are fetched.
+ *
+ * Reports stay registered until they are fetched, so that the ones still outstanding when
+ * the step is stopped can be cancelled. The poller also remembers where in the report queue
+ * they were last seen.
+ */
+public class OmnitureReportPoller {
+
+  private final OmnitureTransport transport;
+  private final long interval;
+  private final Map<Integer, List<CountDownLatch>> waiting = new HashMap<Integer, List<CountDownLatch>>();
+  private final Set<Integer> outstanding = new HashSet<Integer>();
+  private Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param transport
+   *          the authenticated transport to call the API with
+   * @param interval
+   *          the milliseconds between two status calls
+   */
+  public OmnitureReportPoller( OmnitureTransport transport, long interval ) {
+    this.transport = transport;
+    this.interval = interval;
+  }
+
+  /**
+   * Registers a report that was just queued.
+   */
+  public synchronized void register( int reportId ) {
+    outstanding.add( reportId );
+  }
+
+  /**
+   * Unregisters a report that was fetched or failed, it no longer needs to be cancelled.
+   */
+  public synchronized void release( int reportId ) {
+    outstanding.remove( reportId );
+  }
+
+  /**
+   * Cancels all registered reports with Report.Cancel. Reports that finished in the meantime
+   * can't be cancelled anymore, which is ignored. Jobs waiting for a cancelled report are
+   * released and fail on fetching it.
+   *
+   * @return the number of reports cancelled
+   */
+  public int cancelOutstanding() {
+    Set<Integer> reportIds;
+    synchronized ( this ) {
+      reportIds = new HashSet<Integer>( outstanding );
+      outstanding.clear();
+    }
+    // the cancel calls go out together, stopping shouldn't take a round trip per report
+    List<Future<String>> calls = new ArrayList<Future<String>>();
+    for ( Integer reportId : reportIds ) {
+      calls.add( transport.callMethodAsync( "Report.Cancel", JsonUtil.GSON.toJson( JsonUtil.o( "reportID", reportId ) ) ) );
+    }
+    int cancelled = 0;
+    boolean interrupted = false;
+    for ( Future<String> call : calls ) {
+      try {
+        call.get();
+        cancelled++;
+      } catch ( ExecutionException e ) {
+        // already done or gone
+      } catch ( InterruptedException e ) {
+        interrupted = true;
+      }
+    }
+    if ( interrupted ) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized ( this ) {
+      for ( Integer reportId : reportIds ) {
+        countDown( waiting.remove( reportId ) );
+      }
+    }
+    return cancelled;
+  }
+
+  /**
+   * Blocks until the given report has left the report queue or the timeout elapsed.
+   *
+   * @param timeout
+   *          the milliseconds to wait at most
+   * @return true if the report left the report queue, false if the timeout elapsed first
+   */
+  public boolean await( int reportId, long timeout ) throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch( 1 );
+    synchronized ( this ) {
+      // several jobs may wait for the same report, such as steps attached to it
+      List<CountDownLatch> latches = waiting.get( reportId );
+      if ( latches == null ) {
+        latches = new ArrayList<CountDownLatch>();
+        waiting.put( reportId, latches );
+      }
+      latches.add( latch );
+      if ( scheduler == null ) {
+        start();
+      }
+    }
+    try {
+      return latch.await( timeout, TimeUnit.MILLISECONDS );
+    } finally {
+      synchronized ( this ) {
+        List<CountDownLatch> latches = waiting.get( reportId );
+        if ( latches != null && latches.remove( latch ) && latches.isEmpty() ) {
+          waiting.remove( reportId );
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the position of the report in the report queue at the last status call, starting at 0, -1 if
+   *         it wasn't in the queue
+   */
+  public synchronized int getQueuePosition( int reportId ) {
+    Integer position = positions.get( reportId );
+    return position == null ? -1 : position;
+  }
+
+  /**
+   * Stops polling.
+   */
+  public synchronized void shutdown() {
+    if ( scheduler != null ) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  private void start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+      public Thread newThread( Runnable runnable ) {
+        Thread thread = new Thread( runnable, "omniture-report-poller" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    scheduler.scheduleWithFixedDelay( new Runnable() {
+      public void run() {
+        poll();
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS );
+  }
+
+  private void poll() {
+    synchronized ( this ) {
+      if ( waiting.isEmpty() ) {
+        return;
+      }
+    }
+    Map<Integer, Integer> queued;
+    try {
+      queued = queuedReports();
+    } catch ( Exception e ) {
+      // without the queue status every job checks its own report with Report.Get
+      queued = new HashMap<Integer, Integer>();
+    }
+    synchronized ( this ) {
+      positions = queued;
+      for ( Iterator<Map.Entry<Integer, List<CountDownLatch>>> it = waiting.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<Integer, List<CountDownLatch>> entry = it.next();
+        if ( !queued.containsKey( entry.getKey() ) ) {
+          countDown( entry.getValue() );
+          it.remove();
+        }
+      }
+    }
+  }
+
+  private static void countDown( List<CountDownLatch> latches ) {
+    if ( latches != null ) {
+      for ( CountDownLatch latch : latches ) {
+        latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * @return the ids of the reports still waiting or running in the report queue, with their positions
+   */
+  private Map<Integer, Integer> queuedReports() throws IOException {
+    Map<Integer, Integer> ids = new HashMap<Integer, Integer>();
+    JsonElement queue = new JsonParser().parse( transport.callMethod( "Report.GetQueue", "{}" ) );
+    if ( queue.isJsonArray() ) {
+      JsonArray reports = queue.getAsJsonArray();
+      for ( JsonElement report : reports ) {
+        JsonObject object = report.getAsJsonObject();
+        if ( object.has( "reportID" ) ) {
+          ids.put( object.get( "reportID" ).getAsInt(), ids.size() );
+        }
+      }
+    }
+    return ids;
+  }
+}
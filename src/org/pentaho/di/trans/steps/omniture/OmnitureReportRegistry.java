@@ -0,0 +1,227 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+/**
+ * JVM-wide registry of the reports being fetched, so that identical requests made at the same
+ * time by different transformations or step copies queue only one report.
+ *
+ * The first request for a key queues the report, later requests for the same key attach to it
+ * and get the same result. A key is only registered while its report is in flight, nothing is
+ * cached afterwards. The fetcher can ask whether anybody attached, to keep a copy of what it
+ * downloads for them; a {@link Shared} result is released by every request that got it.
+ */
+public final class OmnitureReportRegistry {
+
+  /**
+   * A result holding resources, such as a downloaded file, until every request that got it is
+   * done with it.
+   */
+  public interface Shared {
+
+    /**
+     * Called once by the registry, when the request owning the result is done attaching others.
+     *
+     * @param holders
+     *          the number of requests that got the result and will release it
+     */
+    void hold( int holders );
+
+    /**
+     * Called once by every request that got the result.
+     */
+    void release();
+  }
+
+  private static final ConcurrentMap<String, Flight<?>> IN_FLIGHT = new ConcurrentHashMap<String, Flight<?>>();
+
+  private OmnitureReportRegistry() {
+  }
+
+  /**
+   * Fetches the result for the given key, or waits for the fetch already in flight for it.
+   *
+   * @param key
+   *          the normalized request, including the account it is made with
+   * @param deadline
+   *          the time to stop waiting for a fetch in flight by, Long.MAX_VALUE for never
+   * @param fetcher
+   *          fetches the result if no identical request is in flight
+   * @throws TimeoutException
+   *           if the fetch in flight didn't finish by the deadline
+   */
+  @SuppressWarnings( "unchecked" )
+  public static <T> T fetch( String key, long deadline, final Callable<T> fetcher ) throws IOException,
+    InterruptedException, TimeoutException {
+    while ( true ) {
+      Flight<T> task = new Flight<T>( new Callable<T>() {
+        public T call() throws Exception {
+          try {
+            return fetcher.call();
+          } catch ( Exception e ) {
+            if ( Thread.currentThread().isInterrupted() && !( e instanceof InterruptedException ) ) {
+              // the fetching step was stopped, not a failure of the report itself
+              InterruptedException interrupted = new InterruptedException( e.getMessage() );
+              interrupted.initCause( e );
+              throw interrupted;
+            }
+            throw e;
+          }
+        }
+      } );
+      Flight<T> inFlight = (Flight<T>) IN_FLIGHT.putIfAbsent( key, task );
+      if ( inFlight == null ) {
+        try {
+          task.run();
+        } finally {
+          IN_FLIGHT.remove( key, task );
+          task.close();
+        }
+        try {
+          return task.get();
+        } catch ( ExecutionException e ) {
+          throw rethrow( e );
+        }
+      }
+      if ( !inFlight.attach() ) {
+        // finished in the meantime, fetch again
+        continue;
+      }
+      boolean got = false;
+      try {
+        T result;
+        if ( deadline == Long.MAX_VALUE ) {
+          result = inFlight.get();
+        } else {
+          result = inFlight.get( Math.max( 0L, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+        }
+        got = true;
+        return result;
+      } catch ( CancellationException e ) {
+        // the request we attached to was stopped, try again on our own
+      } catch ( ExecutionException e ) {
+        if ( !( e.getCause() instanceof InterruptedException ) ) {
+          throw rethrow( e );
+        }
+        // same as above
+      } finally {
+        if ( !got ) {
+          inFlight.detach();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if a request attached to the fetch in flight for the given key
+   */
+  public static boolean isAttached( String key ) {
+    Flight<?> inFlight = IN_FLIGHT.get( key );
+    return inFlight != null && inFlight.isAttached();
+  }
+
+  private static final class Flight<T> extends FutureTask<T> {
+    private int attached;
+    private boolean closed;
+
+    Flight( Callable<T> callable ) {
+      super( callable );
+    }
+
+    synchronized boolean attach() {
+      if ( closed ) {
+        return false;
+      }
+      attached++;
+      return true;
+    }
+
+    synchronized boolean isAttached() {
+      return attached > 0;
+    }
+
+    /**
+     * Drops a request that attached but didn't get the result.
+     */
+    synchronized void detach() {
+      if ( !closed ) {
+        attached--;
+      } else {
+        Shared shared = shared();
+        if ( shared != null ) {
+          shared.release();
+        }
+      }
+    }
+
+    /**
+     * Stops attaching requests and tells the result how many got it, the owner included.
+     */
+    synchronized void close() {
+      closed = true;
+      Shared shared = shared();
+      if ( shared != null ) {
+        shared.hold( attached + 1 );
+      }
+    }
+
+    private Shared shared() {
+      if ( !isDone() || isCancelled() ) {
+        return null;
+      }
+      try {
+        T result = get();
+        return result instanceof Shared ? (Shared) result : null;
+      } catch ( InterruptedException | ExecutionException e ) {
+        return null;
+      }
+    }
+  }
+
+  private static IOException rethrow( ExecutionException e ) throws InterruptedException {
+    Throwable cause = e.getCause();
+    if ( cause instanceof IOException ) {
+      return (IOException) cause;
+    }
+    if ( cause instanceof InterruptedException ) {
+      throw (InterruptedException) cause;
+    }
+    if ( cause instanceof RuntimeException ) {
+      throw (RuntimeException) cause;
+    }
+    if ( cause instanceof Error ) {
+      throw (Error) cause;
+    }
+    return new IOException( cause );
+  }
+}
@@ -0,0 +1,222 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the report jobs of a step in an order that gets all of them done early without holding
+ * up the output.
+ *
+ * The reports next in output order, counted from the report the step is emitting, go first in
+ * that order, and half of the threads are kept for them. All other jobs follow largest first by
+ * the size previous runs observed, so that a big report isn't left to start last and hold up
+ * everything behind it. Jobs without an estimate count as the largest. The next job is picked
+ * whenever a thread frees up, so the reports coming up move ahead as the output advances.
+ */
+public class OmnitureReportScheduler {
+
+  private final ThreadPoolExecutor executor;
+  private final int threads;
+  private final int leadingReports;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final List<ScheduledJob> pending = new ArrayList<ScheduledJob>();
+  private int emitting;
+  private int runningOthers;
+  private boolean shutdown;
+
+  /**
+   * @param jobs
+   *          the number of jobs that will be submitted
+   */
+  public OmnitureReportScheduler( int jobs ) {
+    executor = OmnitureReportExecutors.newReportExecutor( jobs, new LinkedBlockingQueue<Runnable>() );
+    threads = executor.getCorePoolSize();
+    leadingReports = Math.max( 1, threads / 2 );
+    for ( int i = 0; i < threads; i++ ) {
+      executor.execute( new Runnable() {
+        public void run() {
+          work();
+        }
+      } );
+    }
+  }
+
+  /**
+   * Queues a report job.
+   *
+   * @param job
+   *          the job to run
+   * @param sequence
+   *          the position of its report in the output of the step
+   * @param estimate
+   *          the expected response size in bytes, 0 if unknown
+   */
+  public Future<OmnitureReportBuffer> submit( Callable<OmnitureReportBuffer> job, int sequence, long estimate ) {
+    ScheduledJob task = new ScheduledJob( job, sequence, estimate );
+    lock.lock();
+    try {
+      if ( shutdown ) {
+        task.cancel( false );
+      } else {
+        pending.add( task );
+        changed.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+    return task;
+  }
+
+  /**
+   * Tells the scheduler which report the step is emitting, the reports following it become the leading ones.
+   *
+   * @param sequence
+   *          the position of the report in the output of the step
+   */
+  public void emitting( int sequence ) {
+    lock.lock();
+    try {
+      if ( sequence > emitting ) {
+        emitting = sequence;
+        changed.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the threads the jobs run on
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Interrupts the running jobs and drops the queued ones.
+   */
+  public void shutdownNow() {
+    lock.lock();
+    try {
+      shutdown = true;
+      for ( ScheduledJob queued : pending ) {
+        queued.cancel( false );
+      }
+      pending.clear();
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    executor.shutdownNow();
+  }
+
+  private void work() {
+    while ( true ) {
+      ScheduledJob job;
+      lock.lock();
+      try {
+        job = shutdown ? null : next();
+        while ( !shutdown && job == null ) {
+          changed.await();
+          job = shutdown ? null : next();
+        }
+        if ( job == null ) {
+          return;
+        }
+        pending.remove( job );
+        if ( !job.leading ) {
+          runningOthers++;
+        }
+      } catch ( InterruptedException e ) {
+        return;
+      } finally {
+        lock.unlock();
+      }
+      try {
+        job.run();
+      } finally {
+        if ( !job.leading ) {
+          lock.lock();
+          try {
+            runningOthers--;
+            changed.signalAll();
+          } finally {
+            lock.unlock();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the job to run next, null if none may run now
+   */
+  private ScheduledJob next() {
+    ScheduledJob best = null;
+    for ( ScheduledJob job : pending ) {
+      job.leading = job.sequence < emitting + leadingReports;
+      if ( best == null || job.compareTo( best ) < 0 ) {
+        best = job;
+      }
+    }
+    if ( best != null && !best.leading && runningOthers >= threads - leadingReports ) {
+      // the remaining threads are kept for the reports coming up in the output
+      return null;
+    }
+    return best;
+  }
+
+  private static class ScheduledJob extends FutureTask<OmnitureReportBuffer> implements Comparable<ScheduledJob> {
+    private final int sequence;
+    private final long estimate;
+    private boolean leading;
+
+    ScheduledJob( Callable<OmnitureReportBuffer> job, int sequence, long estimate ) {
+      super( job );
+      this.sequence = sequence;
+      // a report of unknown size may be as big as any
+      this.estimate = estimate > 0 ? estimate : Long.MAX_VALUE;
+    }
+
+    public int compareTo( ScheduledJob other ) {
+      if ( leading != other.leading ) {
+        return leading ? -1 : 1;
+      }
+      if ( !leading && estimate != other.estimate ) {
+        return estimate > other.estimate ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : ( sequence == other.sequence ? 0 : 1 );
+    }
+  }
+}
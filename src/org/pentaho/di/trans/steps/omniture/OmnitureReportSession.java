@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.File;
+
+/**
+ * What the report jobs of a step share: the transport and account to fetch with, the poller
+ * waiting for their queued reports, and where the responses go.
+ */
+public class OmnitureReportSession {
+
+  private final OmnitureTransport transport;
+  private final String account;
+  private final OmnitureReportPoller poller;
+  private final OmnitureReportSpool spool;
+  private final OmnitureReportStats stats;
+  private final long memoryLimit;
+  private final File downloadDirectory;
+  private final int companyLimit;
+  private final OmnitureReportWatchdog watchdog;
+
+  /**
+   * @param transport
+   *          the authenticated transport to call the API with
+   * @param account
+   *          the account the transport is authenticated with, identical requests of the same account are shared
+   * @param poller
+   *          the poller to wait for queued reports with, null to poll every report on its own
+   * @param spool
+   *          the spool to write the raw responses to, null to skip spooling
+   * @param stats
+   *          the store to record the observed report sizes in, null to skip recording
+   * @param memoryLimit
+   *          the memory limit of a report buffer in bytes, 0 for no limit
+   * @param downloadDirectory
+   *          the directory to download responses to before parsing them, null to parse them as they stream in
+   * @param companyLimit
+   *          the most reports in flight for the company of the account across the JVM, 0 for no limit
+   * @param watchdog
+   *          the watchdog bounding how long reports may take, null to wait as long as it takes
+   */
+  public OmnitureReportSession( OmnitureTransport transport, String account, OmnitureReportPoller poller,
+    OmnitureReportSpool spool, OmnitureReportStats stats, long memoryLimit, File downloadDirectory,
+    int companyLimit, OmnitureReportWatchdog watchdog ) {
+    this.transport = transport;
+    this.account = account;
+    this.poller = poller;
+    this.spool = spool;
+    this.stats = stats;
+    this.memoryLimit = memoryLimit;
+    this.downloadDirectory = downloadDirectory;
+    this.companyLimit = companyLimit;
+    this.watchdog = watchdog;
+  }
+
+  public OmnitureTransport getTransport() {
+    return transport;
+  }
+
+  public String getAccount() {
+    return account;
+  }
+
+  public OmnitureReportPoller getPoller() {
+    return poller;
+  }
+
+  public OmnitureReportSpool getSpool() {
+    return spool;
+  }
+
+  public OmnitureReportStats getStats() {
+    return stats;
+  }
+
+  public long getMemoryLimit() {
+    return memoryLimit;
+  }
+
+  public File getDownloadDirectory() {
+    return downloadDirectory;
+  }
+
+  public int getCompanyLimit() {
+    return companyLimit;
+  }
+
+  public OmnitureReportWatchdog getWatchdog() {
+    return watchdog;
+  }
+}
@@ -0,0 +1,231 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorts a report buffer by date and elements.
+ *
+ * The sort key is made of the date part columns (year down to minute, compared as numbers) followed
+ * by the element columns in report order. The name column only takes part when there is nothing else
+ * to sort on, as it repeats the period or the first element otherwise. Rows with the same key keep
+ * their report order. A buffer that doesn't fit into the memory limit is sorted in runs which are
+ * merged with an {@link OmnitureReportMerger}.
+ */
+public class OmnitureReportSorter implements Comparator<String[]> {
+
+  private static final String NAME_COLUMN = "name";
+  private static final String[] DATE_PARTS = { "year", "month", "day", "hour", "minute" };
+
+  /** rough heap cost of a buffered row on top of its values */
+  private static final int ROW_OVERHEAD = 64;
+
+  private final int[] dateColumns;
+  private final int[] elementColumns;
+
+  /**
+   * @param headerNames
+   *          the columns of the report, elements first
+   * @param elementCount
+   *          the number of element columns
+   */
+  public OmnitureReportSorter( List<String> headerNames, int elementCount ) {
+    List<String> elements = headerNames.subList( 0, elementCount );
+    List<Integer> dates = new ArrayList<Integer>();
+    for ( String part : DATE_PARTS ) {
+      if ( elements.contains( part ) ) {
+        dates.add( elements.indexOf( part ) );
+      }
+    }
+    List<Integer> others = new ArrayList<Integer>();
+    for ( int i = 0; i < elementCount; i++ ) {
+      if ( !dates.contains( i ) && !NAME_COLUMN.equals( elements.get( i ) ) ) {
+        others.add( i );
+      }
+    }
+    if ( dates.isEmpty() && others.isEmpty() && elements.contains( NAME_COLUMN ) ) {
+      others.add( elements.indexOf( NAME_COLUMN ) );
+    }
+    dateColumns = toArray( dates );
+    elementColumns = toArray( others );
+  }
+
+  /**
+   * Compares the element values of two rows, empty values first.
+   */
+  public int compare( String[] a, String[] b ) {
+    for ( int column : dateColumns ) {
+      int result = compareNumbers( a[column], b[column] );
+      if ( result != 0 ) {
+        return result;
+      }
+    }
+    for ( int column : elementColumns ) {
+      int result = compareStrings( a[column], b[column] );
+      if ( result != 0 ) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Sorts the buffer into a new one and clears it.
+   *
+   * @param buffer
+   *          the report to sort
+   * @param memoryLimit
+   *          the memory limit in bytes, 0 for no limit
+   * @return the sorted report
+   */
+  public static OmnitureReportBuffer sort( OmnitureReportBuffer buffer, long memoryLimit ) throws IOException {
+    final OmnitureReportSorter sorter = new OmnitureReportSorter( buffer.getHeaderNames(), buffer.getElementCount() );
+    Comparator<Row> order = new Comparator<Row>() {
+      public int compare( Row a, Row b ) {
+        return sorter.compare( a.elements, b.elements );
+      }
+    };
+    long rowBytes = ROW_OVERHEAD + 40 * buffer.getElementCount() + 8 * buffer.getMetricCount();
+    long runRows = memoryLimit <= 0 ? Long.MAX_VALUE : Math.max( 1024, memoryLimit / rowBytes );
+
+    List<OmnitureReportBuffer> runs = new ArrayList<OmnitureReportBuffer>();
+    OmnitureReportBuffer result = null;
+    try {
+      List<Row> rows = new ArrayList<Row>();
+      OmnitureReportBuffer.Cursor cursor = buffer.cursor();
+      try {
+        while ( cursor.next() ) {
+          Row row = new Row( buffer.getElementCount(), buffer.getMetricCount() );
+          for ( int i = 0; i < row.elements.length; i++ ) {
+            row.elements[i] = cursor.getString( i );
+          }
+          for ( int i = 0; i < row.metrics.length; i++ ) {
+            row.metrics[i] = cursor.getMetric( row.elements.length + i );
+          }
+          rows.add( row );
+          if ( rows.size() >= runRows ) {
+            runs.add( write( rows, order, buffer, memoryLimit ) );
+            rows.clear();
+          }
+        }
+      } finally {
+        cursor.close();
+      }
+      if ( runs.isEmpty() ) {
+        result = write( rows, order, buffer, memoryLimit );
+        return result;
+      }
+      if ( !rows.isEmpty() ) {
+        runs.add( write( rows, order, buffer, memoryLimit ) );
+        rows.clear();
+      }
+
+      result = new OmnitureReportBuffer( buffer.getHeaderNames(), buffer.getMetricCount(), memoryLimit );
+      result.setSegment( buffer.getSegment() );
+      OmnitureReportMerger merger = new OmnitureReportMerger( runs );
+      try {
+        String[] elements = new String[buffer.getElementCount()];
+        double[] metrics = new double[buffer.getMetricCount()];
+        while ( merger.next() ) {
+          OmnitureReportBuffer.Cursor run = merger.getCursor();
+          for ( int i = 0; i < elements.length; i++ ) {
+            elements[i] = run.getString( i );
+          }
+          for ( int i = 0; i < metrics.length; i++ ) {
+            metrics[i] = run.getMetric( elements.length + i );
+          }
+          result.addRow( elements, metrics );
+        }
+      } finally {
+        merger.close();
+      }
+      return result;
+    } catch ( IOException | RuntimeException e ) {
+      if ( result != null ) {
+        result.clear();
+      }
+      throw e;
+    } finally {
+      for ( OmnitureReportBuffer run : runs ) {
+        run.clear();
+      }
+      buffer.clear();
+    }
+  }
+
+  private static OmnitureReportBuffer write( List<Row> rows, Comparator<Row> order, OmnitureReportBuffer source,
+    long memoryLimit ) throws IOException {
+    // a stable sort, rows with the same key stay in report order
+    Collections.sort( rows, order );
+    OmnitureReportBuffer run = new OmnitureReportBuffer( source.getHeaderNames(), source.getMetricCount(), memoryLimit );
+    run.setSegment( source.getSegment() );
+    for ( Row row : rows ) {
+      run.addRow( row.elements, row.metrics );
+    }
+    return run;
+  }
+
+  /**
+   * Compares non-negative whole numbers as Omniture renders them, without parsing.
+   */
+  private static int compareNumbers( String a, String b ) {
+    if ( a == null || b == null ) {
+      return a == null ? ( b == null ? 0 : -1 ) : 1;
+    }
+    if ( a.length() != b.length() ) {
+      return a.length() - b.length();
+    }
+    return a.compareTo( b );
+  }
+
+  private static int compareStrings( String a, String b ) {
+    if ( a == null || b == null ) {
+      return a == null ? ( b == null ? 0 : -1 ) : 1;
+    }
+    return a.compareTo( b );
+  }
+
+  private static int[] toArray( List<Integer> values ) {
+    int[] array = new int[values.size()];
+    for ( int i = 0; i < array.length; i++ ) {
+      array[i] = values.get( i );
+    }
+    return array;
+  }
+
+  private static class Row {
+    private final String[] elements;
+    private final double[] metrics;
+
+    private Row( int elementCount, int metricCount ) {
+      elements = new String[elementCount];
+      metrics = new double[metricCount];
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Directory of raw Report.Get responses, gzip compressed, one file per report. A report that
+ * was split into several sub-reports has one file per part, to be joined again on replay.
+ *
+ * The step writes to the spool while it fetches reports from the API, and can later replay
+ * the spooled responses instead of calling the API again. Every step copy spools to its own
+ * subdirectory, so steps sharing a spool directory don't remove each other's responses.
+ */
+public class OmnitureReportSpool {
+
+  private static final String PREFIX = "report-";
+  private static final String SUFFIX = ".json.gz";
+  private static final String ENCODING = "UTF-8";
+
+  private final File directory;
+
+  /**
+   * @param directory
+   *          the spool directory
+   * @param stepName
+   *          the name of the step spooling to it
+   * @param copy
+   *          the copy number of the step
+   */
+  public OmnitureReportSpool( String directory, String stepName, int copy ) {
+    this.directory = new File( directory, stepName.replaceAll( "[^\\w.-]", "_" ) + "-" + copy );
+  }
+
+  /**
+   * @return the subdirectory of the step copy
+   */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Removes the responses of a previous run, so that a replay only sees the current one.
+   */
+  public void clear() throws IOException {
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Unable to create spool directory " + directory );
+    }
+    for ( File file : listFiles() ) {
+      if ( !file.delete() ) {
+        throw new IOException( "Unable to remove spooled report " + file );
+      }
+    }
+  }
+
+  /**
+   * Opens the file for the raw response of the given part of the report with the given sequence
+   * number, the response is compressed as it is written.
+   */
+  public OutputStream open( int sequence, int part ) throws IOException {
+    return new GZIPOutputStream( new FileOutputStream( fileOf( sequence, part ) ), 64 * 1024 );
+  }
+
+  /**
+   * Removes the response of the given part of the report, for a response that couldn't be read to the end.
+   */
+  public void discard( int sequence, int part ) {
+    fileOf( sequence, part ).delete();
+  }
+
+  private File fileOf( int sequence, int part ) {
+    return new File( directory, String.format( "%s%05d-%02d%s", PREFIX, sequence, part, SUFFIX ) );
+  }
+
+  /**
+   * @return the spooled responses in the order they were written
+   */
+  public List<File> listFiles() {
+    File[] files = directory.listFiles( new FilenameFilter() {
+      public boolean accept( File dir, String name ) {
+        return name.startsWith( PREFIX ) && name.endsWith( SUFFIX );
+      }
+    } );
+    if ( files == null ) {
+      return new ArrayList<File>();
+    }
+    // the numbers outgrow their padding for large runs, so the names are compared by number
+    Arrays.sort( files, new Comparator<File>() {
+      public int compare( File first, File second ) {
+        long[] a = numbersOf( first );
+        long[] b = numbersOf( second );
+        if ( a == null || b == null ) {
+          return first.getName().compareTo( second.getName() );
+        }
+        if ( a[0] != b[0] ) {
+          return a[0] < b[0] ? -1 : 1;
+        }
+        return a[1] < b[1] ? -1 : ( a[1] == b[1] ? 0 : 1 );
+      }
+    } );
+    return new ArrayList<File>( Arrays.asList( files ) );
+  }
+
+  /**
+   * @return the sequence number and part of a spooled response, null if its name doesn't hold them
+   */
+  private static long[] numbersOf( File file ) {
+    String name = file.getName();
+    String numbers = name.substring( PREFIX.length(), name.length() - SUFFIX.length() );
+    int dash = numbers.indexOf( '-' );
+    try {
+      return new long[] {
+        Long.parseLong( numbers.substring( 0, dash ) ), Long.parseLong( numbers.substring( dash + 1 ) ) };
+    } catch ( NumberFormatException | IndexOutOfBoundsException e ) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the spooled responses grouped by report, each group holding the parts of one report
+   */
+  public List<List<File>> listReports() {
+    List<List<File>> reports = new ArrayList<List<File>>();
+    String previous = null;
+    for ( File file : listFiles() ) {
+      String name = file.getName();
+      String sequence = name.substring( 0, name.lastIndexOf( '-' ) );
+      if ( !sequence.equals( previous ) ) {
+        reports.add( new ArrayList<File>() );
+        previous = sequence;
+      }
+      reports.get( reports.size() - 1 ).add( file );
+    }
+    return reports;
+  }
+
+  /**
+   * @return a task decoding the spooled response into a report buffer
+   */
+  public static Callable<OmnitureReportBuffer> replay( final File file, final long memoryLimit ) {
+    return new Callable<OmnitureReportBuffer>() {
+      public OmnitureReportBuffer call() throws IOException {
+        Reader reader = openReader( file );
+        try {
+          return OmnitureReportParser.parse( reader, memoryLimit );
+        } finally {
+          reader.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Opens a spooled response through a memory mapping of the file.
+   */
+  public static Reader openReader( File file ) throws IOException {
+    InputStream in = new OmnitureMappedInputStream( file );
+    try {
+      return new InputStreamReader( new GZIPInputStream( in, 64 * 1024 ), ENCODING );
+    } catch ( IOException e ) {
+      in.close();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.Const;
+
+import com.adobe.analytics.client.domain.ReportDescription;
+import com.adobe.analytics.client.domain.ReportDescriptionElement;
+
+/**
+ * Small local store of what previous runs observed per report definition: rows per day, bytes
+ * per row and queue latency per day. Used to size the date chunks of later runs so that every
+ * report comes back at about a target response size, and in time for the report timeout.
+ *
+ * A definition is the report suite, the elements and the date granularity, so the numbers
+ * carry over between runs for other dates, metrics and segments. New observations are blended
+ * into the stored ones, so they follow traffic as it changes over the year.
+ */
+public class OmnitureReportStats {
+
+  private static final String FILE_NAME = "omniture-report-stats.properties";
+  /** weight of a new observation against the stored numbers */
+  private static final double WEIGHT = 0.5;
+
+  private static OmnitureReportStats instance;
+
+  private final File file;
+  private Properties stats;
+
+  public OmnitureReportStats( File file ) {
+    this.file = file;
+  }
+
+  /**
+   * @return the store in the Kettle home directory shared by all steps of the JVM
+   */
+  public static synchronized OmnitureReportStats getInstance() {
+    if ( instance == null ) {
+      instance = new OmnitureReportStats( new File( Const.getKettleDirectory(), FILE_NAME ) );
+    }
+    return instance;
+  }
+
+  /**
+   * @return the key the numbers of the given report are stored under
+   */
+  public static String definitionOf( ReportDescription description ) {
+    StringBuilder key = new StringBuilder( Const.NVL( description.getReportSuiteID(), "" ) );
+    if ( description.getElements() != null ) {
+      for ( ReportDescriptionElement element : description.getElements() ) {
+        key.append( ',' ).append( element.getId() );
+      }
+    }
+    key.append( ',' ).append( description.getDateGranularity() );
+    return key.toString().replace( ' ', '_' ).replace( '=', '_' ).replace( ':', '_' );
+  }
+
+  /**
+   * @return the number of days from one date to the other, both included, or -1 if the dates can't be read
+   */
+  public static int days( String dateFrom, String dateTo ) {
+    if ( dateFrom == null || dateTo == null ) {
+      return -1;
+    }
+    try {
+      SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd" );
+      long from = format.parse( dateFrom ).getTime();
+      long to = format.parse( dateTo ).getTime();
+      // round, days with a daylight saving change aren't 24 hours long
+      return (int) ( ( to - from + TimeUnit.HOURS.toMillis( 12 ) ) / TimeUnit.DAYS.toMillis( 1 ) ) + 1;
+    } catch ( ParseException e ) {
+      return -1;
+    }
+  }
+
+  /**
+   * Records what was observed for a report.
+   *
+   * @param description
+   *          the report that was fetched, a whole one rather than a part of a split report
+   * @param rows
+   *          the number of rows of the report
+   * @param bytes
+   *          the size of the raw response
+   * @param latency
+   *          the milliseconds from queuing the report until it was fetched
+   */
+  public synchronized void record( ReportDescription description, long rows, long bytes, long latency )
+    throws IOException {
+    int days = days( description.getDateFrom(), description.getDateTo() );
+    if ( days <= 0 || rows <= 0 ) {
+      return;
+    }
+    load();
+    String key = definitionOf( description );
+    blend( key + ".rowsPerDay", (double) rows / days );
+    blend( key + ".bytesPerRow", (double) bytes / rows );
+    blend( key + ".latencyPerDay", (double) latency / days );
+    save();
+  }
+
+  /**
+   * @param targetBytes
+   *          the response size to aim for, 0 for any
+   * @param maxLatency
+   *          the milliseconds a report may take from queuing until it is fetched, 0 for any
+   * @return the number of days per report to stay within both, 0 if nothing is known yet
+   */
+  public synchronized int chunkDays( ReportDescription description, long targetBytes, long maxLatency )
+    throws IOException {
+    load();
+    String key = definitionOf( description );
+    double rowsPerDay = get( key + ".rowsPerDay" );
+    double bytesPerRow = get( key + ".bytesPerRow" );
+    double latencyPerDay = get( key + ".latencyPerDay" );
+    double days = Integer.MAX_VALUE;
+    if ( targetBytes > 0 && rowsPerDay > 0 && bytesPerRow > 0 ) {
+      days = Math.min( days, targetBytes / ( rowsPerDay * bytesPerRow ) );
+    }
+    if ( maxLatency > 0 && latencyPerDay > 0 ) {
+      days = Math.min( days, maxLatency / latencyPerDay );
+    }
+    if ( days == Integer.MAX_VALUE ) {
+      return 0;
+    }
+    return (int) Math.max( 1, days );
+  }
+
+  /**
+   * @return the expected size of the raw response of the report in bytes, 0 if nothing is known yet
+   */
+  public synchronized long estimateBytes( ReportDescription description ) throws IOException {
+    int days = days( description.getDateFrom(), description.getDateTo() );
+    load();
+    String key = definitionOf( description );
+    double rowsPerDay = get( key + ".rowsPerDay" );
+    double bytesPerRow = get( key + ".bytesPerRow" );
+    if ( days <= 0 || rowsPerDay <= 0 || bytesPerRow <= 0 ) {
+      return 0;
+    }
+    return (long) ( days * rowsPerDay * bytesPerRow );
+  }
+
+  private double get( String key ) {
+    String value = stats.getProperty( key );
+    if ( value == null ) {
+      return -1;
+    }
+    try {
+      return Double.parseDouble( value );
+    } catch ( NumberFormatException e ) {
+      return -1;
+    }
+  }
+
+  private void blend( String key, double observed ) {
+    double stored = get( key );
+    double value = stored < 0 ? observed : stored * ( 1 - WEIGHT ) + observed * WEIGHT;
+    stats.setProperty( key, Double.toString( value ) );
+  }
+
+  private void load() throws IOException {
+    if ( stats != null ) {
+      return;
+    }
+    stats = new Properties();
+    if ( file.isFile() ) {
+      InputStream in = new FileInputStream( file );
+      try {
+        stats.load( in );
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  private void save() throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if ( !parent.isDirectory() && !parent.mkdirs() ) {
+      throw new IOException( "Unable to create directory " + parent );
+    }
+    // write a copy first, a run that is killed halfway must not lose the numbers
+    File temp = new File( parent, file.getName() + ".tmp" );
+    OutputStream out = new FileOutputStream( temp );
+    try {
+      stats.store( out, "Omniture report statistics" );
+    } finally {
+      out.close();
+    }
+    if ( !temp.renameTo( file ) && !( file.delete() && temp.renameTo( file ) ) ) {
+      throw new IOException( "Unable to write " + file );
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.i18n.BaseMessages;
+
+/**
+ * Bounds how long the report jobs of a step wait for Omniture.
+ *
+ * Every report has to be fetched within the report timeout and all of them within the step
+ * timeout. A report still in the report queue after the re-queue time is reported with its
+ * queue position and queued again once, a report that runs out of time is cancelled and fails
+ * its job.
+ */
+public class OmnitureReportWatchdog {
+
+  private static Class<?> PKG = OmnitureInputMeta.class; // for i18n purposes, needed by Translator2!!
+
+  private final LogChannelInterface log;
+  private final long reportTimeout;
+  private final long requeueAfter;
+  private final long stepDeadline;
+
+  /**
+   * @param log
+   *          the channel to report stuck reports on, null to keep quiet
+   * @param reportTimeout
+   *          the milliseconds a report may take, 0 for no limit
+   * @param requeueAfter
+   *          the milliseconds a report may stay in the report queue before it is queued again, 0 to never re-queue
+   * @param stepTimeout
+   *          the milliseconds all reports may take from now on, 0 for no limit
+   */
+  public OmnitureReportWatchdog( LogChannelInterface log, long reportTimeout, long requeueAfter, long stepTimeout ) {
+    this.log = log;
+    this.reportTimeout = reportTimeout;
+    this.requeueAfter = requeueAfter;
+    this.stepDeadline = stepTimeout > 0 ? System.currentTimeMillis() + stepTimeout : Long.MAX_VALUE;
+  }
+
+  /**
+   * @return the watchdog for the timeouts of the step, starting the step timeout now
+   */
+  public static OmnitureReportWatchdog forMeta( OmnitureInputMeta meta, VariableSpace space, LogChannelInterface log ) {
+    return new OmnitureReportWatchdog( log,
+      Const.toLong( space.environmentSubstitute( meta.getReportTimeout() ), 0L ) * 60000L,
+      Const.toLong( space.environmentSubstitute( meta.getRequeueAfter() ), 0L ) * 60000L,
+      Const.toLong( space.environmentSubstitute( meta.getStepTimeout() ), 0L ) * 60000L );
+  }
+
+  /**
+   * @return the milliseconds a report may take, 0 for no limit
+   */
+  public long getReportTimeout() {
+    return reportTimeout;
+  }
+
+  /**
+   * @return the time a report started at the given time has to be fetched by, Long.MAX_VALUE for never
+   */
+  public long deadline( long start ) {
+    return reportTimeout > 0 ? Math.min( start + reportTimeout, stepDeadline ) : stepDeadline;
+  }
+
+  /**
+   * @return the time a report queued at the given time counts as stuck, Long.MAX_VALUE for never
+   */
+  public long stuckAt( long queued ) {
+    return requeueAfter > 0 ? queued + requeueAfter : Long.MAX_VALUE;
+  }
+
+  /**
+   * @throws IOException
+   *           if the step ran out of time
+   */
+  public void checkStepDeadline() throws IOException {
+    if ( System.currentTimeMillis() >= stepDeadline ) {
+      throw new IOException( BaseMessages.getString( PKG, "OmnitureInput.Exception.StepTimeout" ) );
+    }
+  }
+
+  /**
+   * Reports a report that has been waiting in the report queue too long.
+   *
+   * @param position
+   *          the position of the report in the report queue, -1 if unknown
+   */
+  public void stuck( int reportId, int position, long waited, boolean requeue ) {
+    if ( log != null ) {
+      log.logBasic( BaseMessages.getString( PKG, requeue ? "OmnitureInput.Log.ReportRequeued"
+        : "OmnitureInput.Log.ReportStuck", reportId, waited / 1000L, position < 0 ? "?" : position + 1 ) );
+    }
+  }
+
+  /**
+   * @return the exception failing a report that ran out of time waiting for the identical report of another step
+   */
+  public IOException attachedTimeout( long waited ) {
+    return new IOException( BaseMessages.getString( PKG, "OmnitureInput.Exception.AttachedReportTimeout",
+      waited / 1000L ) );
+  }
+
+  /**
+   * @return the exception failing a report that ran out of time
+   */
+  public IOException timeout( int reportId, long waited ) {
+    return new IOException( BaseMessages.getString( PKG, "OmnitureInput.Exception.ReportTimeout",
+      reportId, waited / 1000L ) );
+  }
+}
@@ -0,0 +1,236 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Temporary file holding the rows an {@link OmnitureReportBuffer} had to move out of memory.
+ *
+ * The file is a sequence of segments, one per spill. Every segment starts with the element
+ * dictionary that was in use when it was written, followed by fixed width rows made of the
+ * int element codes and the double metric values.
+ */
+public class OmnitureSpillFile {
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private final File file;
+  private final int elementCount;
+  private final int metricCount;
+  private FileChannel channel;
+  private ByteBuffer buffer;
+  private long rowCount;
+
+  public OmnitureSpillFile( int elementCount, int metricCount ) throws IOException {
+    this.file = File.createTempFile( "omniture-", ".spill" );
+    this.file.deleteOnExit();
+    this.elementCount = elementCount;
+    this.metricCount = metricCount;
+    this.channel = new RandomAccessFile( file, "rw" ).getChannel();
+    this.buffer = ByteBuffer.allocateDirect( IO_BUFFER_SIZE );
+    this.rowCount = 0;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Appends the first <code>rows</code> rows of the given columns as a new segment.
+   */
+  public void writeSegment( List<String> dictionary, int[][] elementCodes, double[][] metricValues, int rows )
+    throws IOException {
+    putInt( dictionary.size() );
+    for ( String value : dictionary ) {
+      byte[] bytes = value.getBytes( UTF8 );
+      putInt( bytes.length );
+      for ( int offset = 0; offset < bytes.length; ) {
+        ensureRoom( 1 );
+        int length = Math.min( buffer.remaining(), bytes.length - offset );
+        buffer.put( bytes, offset, length );
+        offset += length;
+      }
+    }
+    putInt( rows );
+    for ( int row = 0; row < rows; row++ ) {
+      ensureRoom( 4 * elementCount + 8 * metricCount );
+      for ( int i = 0; i < elementCount; i++ ) {
+        buffer.putInt( elementCodes[i][row] );
+      }
+      for ( int i = 0; i < metricCount; i++ ) {
+        buffer.putDouble( metricValues[i][row] );
+      }
+    }
+    flush();
+    rowCount += rows;
+  }
+
+  /**
+   * @return a new sequential reader positioned before the first row of the file
+   */
+  public Reader reader() throws IOException {
+    return new Reader();
+  }
+
+  /**
+   * Closes and removes the file.
+   */
+  public void delete() {
+    try {
+      if ( channel != null ) {
+        channel.close();
+      }
+    } catch ( IOException e ) { /* Ignore */
+    }
+    channel = null;
+    buffer = null;
+    file.delete();
+  }
+
+  private void putInt( int value ) throws IOException {
+    ensureRoom( 4 );
+    buffer.putInt( value );
+  }
+
+  private void ensureRoom( int bytes ) throws IOException {
+    if ( buffer.remaining() < bytes ) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while ( buffer.hasRemaining() ) {
+      channel.write( buffer );
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Reads the rows of the file back in the order they were written.
+   */
+  public class Reader {
+    private final FileChannel in;
+    private final ByteBuffer input;
+    private List<String> dictionary;
+    private int segmentRowsLeft;
+    private final int[] codes;
+    private final double[] metrics;
+
+    private Reader() throws IOException {
+      in = new RandomAccessFile( file, "r" ).getChannel();
+      input = ByteBuffer.allocateDirect( IO_BUFFER_SIZE );
+      input.flip();
+      codes = new int[elementCount];
+      metrics = new double[metricCount];
+      segmentRowsLeft = 0;
+    }
+
+    /**
+     * Moves to the next row.
+     *
+     * @return false if there are no more rows
+     */
+    public boolean next() throws IOException {
+      while ( segmentRowsLeft == 0 ) {
+        if ( !fill( 4 ) ) {
+          close();
+          return false;
+        }
+        readDictionary();
+        require( 4 );
+        segmentRowsLeft = input.getInt();
+      }
+      require( 4 * elementCount + 8 * metricCount );
+      for ( int i = 0; i < elementCount; i++ ) {
+        codes[i] = input.getInt();
+      }
+      for ( int i = 0; i < metricCount; i++ ) {
+        metrics[i] = input.getDouble();
+      }
+      segmentRowsLeft--;
+      return true;
+    }
+
+    public String getString( int element ) {
+      int code = codes[element];
+      return code < 0 ? null : dictionary.get( code );
+    }
+
+    public double getMetric( int metric ) {
+      return metrics[metric];
+    }
+
+    public void close() {
+      try {
+        in.close();
+      } catch ( IOException e ) { /* Ignore */
+      }
+    }
+
+    private void readDictionary() throws IOException {
+      int entries = input.getInt();
+      dictionary = new ArrayList<String>( entries );
+      for ( int i = 0; i < entries; i++ ) {
+        require( 4 );
+        byte[] bytes = new byte[input.getInt()];
+        for ( int offset = 0; offset < bytes.length; ) {
+          require( 1 );
+          int length = Math.min( input.remaining(), bytes.length - offset );
+          input.get( bytes, offset, length );
+          offset += length;
+        }
+        dictionary.add( new String( bytes, UTF8 ) );
+      }
+    }
+
+    private void require( int bytes ) throws IOException {
+      if ( !fill( bytes ) ) {
+        throw new EOFException( "Unexpected end of spill file " + file );
+      }
+    }
+
+    private boolean fill( int bytes ) throws IOException {
+      while ( input.remaining() < bytes ) {
+        input.compact();
+        int read = in.read( input );
+        input.flip();
+        if ( read < 0 ) {
+          return input.remaining() >= bytes;
+        }
+      }
+      return true;
+    }
+  }
+}
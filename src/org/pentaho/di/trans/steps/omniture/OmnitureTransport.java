@@ -0,0 +1,77 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.omniture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Future;
+
+/**
+ * Carries the calls of the step to the Omniture REST API.
+ *
+ * Errors returned by the API are thrown as {@link com.adobe.analytics.client.ApiException}, so callers
+ * can tell a report that isn't ready from a failure the same way they do with the client library.
+ */
+public interface OmnitureTransport {
+
+  /**
+   * Calls an API method and returns the raw response.
+   *
+   * @param method
+   *          the API method, for example Report.Queue
+   * @param request
+   *          the JSON request
+   */
+  String callMethod( String method, String request ) throws IOException;
+
+  /**
+   * Calls an API method and hands the response body to the handler while it streams in, decoded
+   * but never buffered as a whole. The body is closed once the handler returns.
+   */
+  <T> T callMethod( String method, String request, ResponseHandler<T> handler ) throws IOException;
+
+  /**
+   * Calls an API method with a request and response mapped from and to JSON.
+   */
+  <T> T callMethod( String method, Object request, Class<T> type ) throws IOException;
+
+  /**
+   * Calls an API method without blocking the caller.
+   *
+   * @return the raw response once it is in
+   */
+  Future<String> callMethodAsync( String method, String request );
+
+  /**
+   * Releases the threads and connections held by the transport.
+   */
+  void close();
+
+  /**
+   * Consumes a streamed response body.
+   */
+  interface ResponseHandler<T> {
+    T handle( InputStream response ) throws IOException;
+  }
+}
@@ -24,11 +24,11 @@ package org.pentaho.di.ui.trans.steps.omniture;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.adobe.analytics.client.*;
 import com.adobe.analytics.client.domain.*;
-import com.adobe.analytics.client.methods.*;
 import org.eclipse.swt.SWT;
 import org.pentaho.di.ui.core.dialog.EnterNumberDialog;
 import org.pentaho.di.ui.core.dialog.EnterTextDialog;
@@ -74,7 +74,13 @@ import org.pentaho.di.trans.TransPreviewFactory;
 import org.pentaho.di.trans.step.BaseStepMeta;
 import org.pentaho.di.trans.step.StepDialogInterface;
 import org.pentaho.di.trans.steps.omniture.OmnitureInputField;
+import org.pentaho.di.trans.steps.omniture.OmnitureHttpTransport;
 import org.pentaho.di.trans.steps.omniture.OmnitureInputMeta;
+import org.pentaho.di.trans.steps.omniture.OmnitureReportDefinition;
+import org.pentaho.di.trans.steps.omniture.OmnitureReportJob;
+import org.pentaho.di.trans.steps.omniture.OmnitureReportSession;
+import org.pentaho.di.trans.steps.omniture.OmnitureReportWatchdog;
+import org.pentaho.di.trans.steps.omniture.OmnitureTransport;
 import org.pentaho.di.ui.core.widget.LabelTextVar;
 import org.pentaho.di.ui.core.widget.TableView;
 import org.pentaho.di.ui.core.widget.TextVar;
@@ -87,8 +93,8 @@ public class OmnitureInputDialog extends BaseStepDialog implements StepDialogInt
   private OmnitureInputMeta input;
 
   private CTabFolder wTabFolder;
-  private Composite wSetupComp, wFieldsComp;
-  private CTabItem wSetupTab, wFieldsTab;
+  private Composite wSetupComp, wAdvancedComp, wReportsComp, wFieldsComp;
+  private CTabItem wSetupTab, wAdvancedTab, wReportsTab, wFieldsTab;
   
   private FormData fdTabFolder, fdFieldsComp;
   private FormData fdFields;
@@ -135,6 +141,75 @@ public class OmnitureInputDialog extends BaseStepDialog implements StepDialogInt
   private Link wQuMetricsReference;
   private Link wQuSegmentsReference;
 
+  private Group wMemoryGroup;
+  private Label wlMemoryLimit;
+  private TextVar wMemoryLimit;
+  private Label wlConversionThreads;
+  private TextVar wConversionThreads;
+  private Label wlDownloadToFile;
+  private Button wDownloadToFile;
+
+  private Group wSpoolGroup;
+  private Label wlSpoolDirectory;
+  private TextVar wSpoolDirectory;
+  private Label wlReplaySpool;
+  private Button wReplaySpool;
+
+  private Group wSplitGroup;
+  private Label wlMaxMetrics;
+  private TextVar wMaxMetrics;
+  private Label wlFanOutValues;
+  private TextVar wFanOutValues;
+  private Label wlSegmentFanOut;
+  private Button wSegmentFanOut;
+  private Label wlSegmentField;
+  private TextVar wSegmentField;
+  private Label wlChunkTargetSize;
+  private TextVar wChunkTargetSize;
+
+  private Group wDatesGroup;
+  private Label wlTimeZone;
+  private TextVar wTimeZone;
+  private Label wlSortedOutput;
+  private Button wSortedOutput;
+  private Group wConnectionGroup;
+  private Label wlConnectTimeout;
+  private TextVar wConnectTimeout;
+  private Label wlReadTimeout;
+  private TextVar wReadTimeout;
+  private Label wlMaxReportsPerCompany;
+  private TextVar wMaxReportsPerCompany;
+  private Label wlCircuitBreakerErrorRate;
+  private TextVar wCircuitBreakerErrorRate;
+  private Label wlCircuitBreakerWait;
+  private Button wCircuitBreakerWait;
+  private Label wlReportTimeout;
+  private TextVar wReportTimeout;
+  private Label wlRequeueAfter;
+  private TextVar wRequeueAfter;
+  private Label wlStepTimeout;
+  private TextVar wStepTimeout;
+  private Group wChangesGroup;
+  private Label wlChangeIndexFile;
+  private TextVar wChangeIndexFile;
+  private Label wlOperationField;
+  private TextVar wOperationField;
+  private Group wParametersGroup;
+  private Label wlParametersFromInput;
+  private Button wParametersFromInput;
+  private Label wlSuiteField;
+  private TextVar wSuiteField;
+  private Label wlStartDateField;
+  private TextVar wStartDateField;
+  private Label wlEndDateField;
+  private TextVar wEndDateField;
+  private Label wlSegmentsField;
+  private TextVar wSegmentsField;
+
+  private Label wlReportNameField;
+  private TextVar wReportNameField;
+  private TableView wReports;
+
   private int middle;
   private int margin;
 
@@ -505,6 +580,757 @@ public String open() {
     wReportGroup.setLayoutData( fdReportGroup );
     
     
+    // ////////////////////////
+    // START OF ADVANCED TAB ///
+    // ////////////////////////
+
+    wAdvancedTab = new CTabItem( wTabFolder, SWT.NONE );
+    wAdvancedTab.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.Tab.Advanced.Label" ) );
+    wAdvancedComp = new Composite( wTabFolder, SWT.NONE );
+    props.setLook( wAdvancedComp );
+    FormLayout advancedLayout = new FormLayout();
+    advancedLayout.marginWidth = 3;
+    advancedLayout.marginHeight = 3;
+    wAdvancedComp.setLayout( advancedLayout );
+    wAdvancedTab.setControl( wAdvancedComp );
+
+    /*************************************************
+     * // MEMORY GROUP
+     *************************************************/
+
+    wMemoryGroup = new Group( wAdvancedComp, SWT.SHADOW_ETCHED_IN );
+    wMemoryGroup.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.MemoryGroup.Label" ) );
+    FormLayout fmemoryLayout = new FormLayout();
+    fmemoryLayout.marginWidth = 3;
+    fmemoryLayout.marginHeight = 3;
+    wMemoryGroup.setLayout( fmemoryLayout );
+    props.setLook( wMemoryGroup );
+
+    // Memory limit
+    wlMemoryLimit = new Label( wMemoryGroup, SWT.RIGHT );
+    wlMemoryLimit.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.MemoryLimit.Label" ) );
+    props.setLook( wlMemoryLimit );
+    FormData fdlMemoryLimit = new FormData();
+    fdlMemoryLimit.top = new FormAttachment( 0, margin );
+    fdlMemoryLimit.left = new FormAttachment( 0, 0 );
+    fdlMemoryLimit.right = new FormAttachment( middle, -margin );
+    wlMemoryLimit.setLayoutData( fdlMemoryLimit );
+    wMemoryLimit = new TextVar( transMeta, wMemoryGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wMemoryLimit.addModifyListener( lsMod );
+    wMemoryLimit.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.MemoryLimit.Tooltip" ) );
+    props.setLook( wMemoryLimit );
+    FormData fdMemoryLimit = new FormData();
+    fdMemoryLimit.top = new FormAttachment( 0, margin );
+    fdMemoryLimit.left = new FormAttachment( middle, 0 );
+    fdMemoryLimit.right = new FormAttachment( 100, 0 );
+    wMemoryLimit.setLayoutData( fdMemoryLimit );
+
+    // Conversion threads
+    wlConversionThreads = new Label( wMemoryGroup, SWT.RIGHT );
+    wlConversionThreads.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ConversionThreads.Label" ) );
+    props.setLook( wlConversionThreads );
+    FormData fdlConversionThreads = new FormData();
+    fdlConversionThreads.top = new FormAttachment( wMemoryLimit, margin );
+    fdlConversionThreads.left = new FormAttachment( 0, 0 );
+    fdlConversionThreads.right = new FormAttachment( middle, -margin );
+    wlConversionThreads.setLayoutData( fdlConversionThreads );
+    wConversionThreads = new TextVar( transMeta, wMemoryGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wConversionThreads.addModifyListener( lsMod );
+    wConversionThreads.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.ConversionThreads.Tooltip" ) );
+    props.setLook( wConversionThreads );
+    FormData fdConversionThreads = new FormData();
+    fdConversionThreads.top = new FormAttachment( wMemoryLimit, margin );
+    fdConversionThreads.left = new FormAttachment( middle, 0 );
+    fdConversionThreads.right = new FormAttachment( 100, 0 );
+    wConversionThreads.setLayoutData( fdConversionThreads );
+
+    // Download to file
+    wlDownloadToFile = new Label( wMemoryGroup, SWT.RIGHT );
+    wlDownloadToFile.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.DownloadToFile.Label" ) );
+    props.setLook( wlDownloadToFile );
+    FormData fdlDownloadToFile = new FormData();
+    fdlDownloadToFile.top = new FormAttachment( wConversionThreads, margin );
+    fdlDownloadToFile.left = new FormAttachment( 0, 0 );
+    fdlDownloadToFile.right = new FormAttachment( middle, -margin );
+    wlDownloadToFile.setLayoutData( fdlDownloadToFile );
+    wDownloadToFile = new Button( wMemoryGroup, SWT.CHECK );
+    wDownloadToFile.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.DownloadToFile.Tooltip" ) );
+    props.setLook( wDownloadToFile );
+    FormData fdDownloadToFile = new FormData();
+    fdDownloadToFile.top = new FormAttachment( wConversionThreads, margin );
+    fdDownloadToFile.left = new FormAttachment( middle, 0 );
+    fdDownloadToFile.right = new FormAttachment( 100, 0 );
+    wDownloadToFile.setLayoutData( fdDownloadToFile );
+    wDownloadToFile.addSelectionListener( new SelectionAdapter() {
+      public void widgetSelected( SelectionEvent e ) {
+        getInput().setChanged();
+      }
+    } );
+
+    FormData fdMemoryGroup = new FormData();
+    fdMemoryGroup.left = new FormAttachment( 0, 0 );
+    fdMemoryGroup.right = new FormAttachment( 100, 0 );
+    fdMemoryGroup.top = new FormAttachment( 0, margin );
+    wMemoryGroup.setLayoutData( fdMemoryGroup );
+
+    /*************************************************
+     * // SPOOL GROUP
+     *************************************************/
+
+    wSpoolGroup = new Group( wAdvancedComp, SWT.SHADOW_ETCHED_IN );
+    wSpoolGroup.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.SpoolGroup.Label" ) );
+    FormLayout fspoolLayout = new FormLayout();
+    fspoolLayout.marginWidth = 3;
+    fspoolLayout.marginHeight = 3;
+    wSpoolGroup.setLayout( fspoolLayout );
+    props.setLook( wSpoolGroup );
+
+    // Spool directory
+    wlSpoolDirectory = new Label( wSpoolGroup, SWT.RIGHT );
+    wlSpoolDirectory.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.SpoolDirectory.Label" ) );
+    props.setLook( wlSpoolDirectory );
+    FormData fdlSpoolDirectory = new FormData();
+    fdlSpoolDirectory.top = new FormAttachment( 0, margin );
+    fdlSpoolDirectory.left = new FormAttachment( 0, 0 );
+    fdlSpoolDirectory.right = new FormAttachment( middle, -margin );
+    wlSpoolDirectory.setLayoutData( fdlSpoolDirectory );
+    wSpoolDirectory = new TextVar( transMeta, wSpoolGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wSpoolDirectory.addModifyListener( lsMod );
+    wSpoolDirectory.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.SpoolDirectory.Tooltip" ) );
+    props.setLook( wSpoolDirectory );
+    FormData fdSpoolDirectory = new FormData();
+    fdSpoolDirectory.top = new FormAttachment( 0, margin );
+    fdSpoolDirectory.left = new FormAttachment( middle, 0 );
+    fdSpoolDirectory.right = new FormAttachment( 100, 0 );
+    wSpoolDirectory.setLayoutData( fdSpoolDirectory );
+
+    // Replay spooled reports
+    wlReplaySpool = new Label( wSpoolGroup, SWT.RIGHT );
+    wlReplaySpool.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ReplaySpool.Label" ) );
+    props.setLook( wlReplaySpool );
+    FormData fdlReplaySpool = new FormData();
+    fdlReplaySpool.top = new FormAttachment( wSpoolDirectory, margin );
+    fdlReplaySpool.left = new FormAttachment( 0, 0 );
+    fdlReplaySpool.right = new FormAttachment( middle, -margin );
+    wlReplaySpool.setLayoutData( fdlReplaySpool );
+    wReplaySpool = new Button( wSpoolGroup, SWT.CHECK );
+    wReplaySpool.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.ReplaySpool.Tooltip" ) );
+    props.setLook( wReplaySpool );
+    FormData fdReplaySpool = new FormData();
+    fdReplaySpool.top = new FormAttachment( wSpoolDirectory, margin );
+    fdReplaySpool.left = new FormAttachment( middle, 0 );
+    fdReplaySpool.right = new FormAttachment( 100, 0 );
+    wReplaySpool.setLayoutData( fdReplaySpool );
+    wReplaySpool.addSelectionListener( new SelectionAdapter() {
+      public void widgetSelected( SelectionEvent e ) {
+        getInput().setChanged();
+      }
+    } );
+
+    FormData fdSpoolGroup = new FormData();
+    fdSpoolGroup.left = new FormAttachment( 0, 0 );
+    fdSpoolGroup.right = new FormAttachment( 100, 0 );
+    fdSpoolGroup.top = new FormAttachment( wMemoryGroup, margin );
+    wSpoolGroup.setLayoutData( fdSpoolGroup );
+
+    /*************************************************
+     * // SPLIT GROUP
+     *************************************************/
+
+    wSplitGroup = new Group( wAdvancedComp, SWT.SHADOW_ETCHED_IN );
+    wSplitGroup.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.SplitGroup.Label" ) );
+    FormLayout fsplitLayout = new FormLayout();
+    fsplitLayout.marginWidth = 3;
+    fsplitLayout.marginHeight = 3;
+    wSplitGroup.setLayout( fsplitLayout );
+    props.setLook( wSplitGroup );
+
+    // Max metrics per report
+    wlMaxMetrics = new Label( wSplitGroup, SWT.RIGHT );
+    wlMaxMetrics.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.MaxMetrics.Label" ) );
+    props.setLook( wlMaxMetrics );
+    FormData fdlMaxMetrics = new FormData();
+    fdlMaxMetrics.top = new FormAttachment( 0, margin );
+    fdlMaxMetrics.left = new FormAttachment( 0, 0 );
+    fdlMaxMetrics.right = new FormAttachment( middle, -margin );
+    wlMaxMetrics.setLayoutData( fdlMaxMetrics );
+    wMaxMetrics = new TextVar( transMeta, wSplitGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wMaxMetrics.addModifyListener( lsMod );
+    wMaxMetrics.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.MaxMetrics.Tooltip" ) );
+    props.setLook( wMaxMetrics );
+    FormData fdMaxMetrics = new FormData();
+    fdMaxMetrics.top = new FormAttachment( 0, margin );
+    fdMaxMetrics.left = new FormAttachment( middle, 0 );
+    fdMaxMetrics.right = new FormAttachment( 100, 0 );
+    wMaxMetrics.setLayoutData( fdMaxMetrics );
+
+    // Fan-out values per report
+    wlFanOutValues = new Label( wSplitGroup, SWT.RIGHT );
+    wlFanOutValues.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.FanOutValues.Label" ) );
+    props.setLook( wlFanOutValues );
+    FormData fdlFanOutValues = new FormData();
+    fdlFanOutValues.top = new FormAttachment( wMaxMetrics, margin );
+    fdlFanOutValues.left = new FormAttachment( 0, 0 );
+    fdlFanOutValues.right = new FormAttachment( middle, -margin );
+    wlFanOutValues.setLayoutData( fdlFanOutValues );
+    wFanOutValues = new TextVar( transMeta, wSplitGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wFanOutValues.addModifyListener( lsMod );
+    wFanOutValues.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.FanOutValues.Tooltip" ) );
+    props.setLook( wFanOutValues );
+    FormData fdFanOutValues = new FormData();
+    fdFanOutValues.top = new FormAttachment( wMaxMetrics, margin );
+    fdFanOutValues.left = new FormAttachment( middle, 0 );
+    fdFanOutValues.right = new FormAttachment( 100, 0 );
+    wFanOutValues.setLayoutData( fdFanOutValues );
+
+    // One report per segment
+    wlSegmentFanOut = new Label( wSplitGroup, SWT.RIGHT );
+    wlSegmentFanOut.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.SegmentFanOut.Label" ) );
+    props.setLook( wlSegmentFanOut );
+    FormData fdlSegmentFanOut = new FormData();
+    fdlSegmentFanOut.top = new FormAttachment( wFanOutValues, margin );
+    fdlSegmentFanOut.left = new FormAttachment( 0, 0 );
+    fdlSegmentFanOut.right = new FormAttachment( middle, -margin );
+    wlSegmentFanOut.setLayoutData( fdlSegmentFanOut );
+    wSegmentFanOut = new Button( wSplitGroup, SWT.CHECK );
+    wSegmentFanOut.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.SegmentFanOut.Tooltip" ) );
+    props.setLook( wSegmentFanOut );
+    FormData fdSegmentFanOut = new FormData();
+    fdSegmentFanOut.top = new FormAttachment( wFanOutValues, margin );
+    fdSegmentFanOut.left = new FormAttachment( middle, 0 );
+    fdSegmentFanOut.right = new FormAttachment( 100, 0 );
+    wSegmentFanOut.setLayoutData( fdSegmentFanOut );
+    wSegmentFanOut.addSelectionListener( new SelectionAdapter() {
+      public void widgetSelected( SelectionEvent e ) {
+        getInput().setChanged();
+      }
+    } );
+
+    // Segment field
+    wlSegmentField = new Label( wSplitGroup, SWT.RIGHT );
+    wlSegmentField.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.SegmentField.Label" ) );
+    props.setLook( wlSegmentField );
+    FormData fdlSegmentField = new FormData();
+    fdlSegmentField.top = new FormAttachment( wSegmentFanOut, margin );
+    fdlSegmentField.left = new FormAttachment( 0, 0 );
+    fdlSegmentField.right = new FormAttachment( middle, -margin );
+    wlSegmentField.setLayoutData( fdlSegmentField );
+    wSegmentField = new TextVar( transMeta, wSplitGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wSegmentField.addModifyListener( lsMod );
+    wSegmentField.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.SegmentField.Tooltip" ) );
+    props.setLook( wSegmentField );
+    FormData fdSegmentField = new FormData();
+    fdSegmentField.top = new FormAttachment( wSegmentFanOut, margin );
+    fdSegmentField.left = new FormAttachment( middle, 0 );
+    fdSegmentField.right = new FormAttachment( 100, 0 );
+    wSegmentField.setLayoutData( fdSegmentField );
+
+    // Chunk target size
+    wlChunkTargetSize = new Label( wSplitGroup, SWT.RIGHT );
+    wlChunkTargetSize.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ChunkTargetSize.Label" ) );
+    props.setLook( wlChunkTargetSize );
+    FormData fdlChunkTargetSize = new FormData();
+    fdlChunkTargetSize.top = new FormAttachment( wSegmentField, margin );
+    fdlChunkTargetSize.left = new FormAttachment( 0, 0 );
+    fdlChunkTargetSize.right = new FormAttachment( middle, -margin );
+    wlChunkTargetSize.setLayoutData( fdlChunkTargetSize );
+    wChunkTargetSize = new TextVar( transMeta, wSplitGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wChunkTargetSize.addModifyListener( lsMod );
+    wChunkTargetSize.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.ChunkTargetSize.Tooltip" ) );
+    props.setLook( wChunkTargetSize );
+    FormData fdChunkTargetSize = new FormData();
+    fdChunkTargetSize.top = new FormAttachment( wSegmentField, margin );
+    fdChunkTargetSize.left = new FormAttachment( middle, 0 );
+    fdChunkTargetSize.right = new FormAttachment( 100, 0 );
+    wChunkTargetSize.setLayoutData( fdChunkTargetSize );
+
+    FormData fdSplitGroup = new FormData();
+    fdSplitGroup.left = new FormAttachment( 0, 0 );
+    fdSplitGroup.right = new FormAttachment( 100, 0 );
+    fdSplitGroup.top = new FormAttachment( wSpoolGroup, margin );
+    wSplitGroup.setLayoutData( fdSplitGroup );
+
+    /*************************************************
+     * // DATES GROUP
+     *************************************************/
+
+    wDatesGroup = new Group( wAdvancedComp, SWT.SHADOW_ETCHED_IN );
+    wDatesGroup.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.DatesGroup.Label" ) );
+    FormLayout fdatesLayout = new FormLayout();
+    fdatesLayout.marginWidth = 3;
+    fdatesLayout.marginHeight = 3;
+    wDatesGroup.setLayout( fdatesLayout );
+    props.setLook( wDatesGroup );
+
+    // Time zone
+    wlTimeZone = new Label( wDatesGroup, SWT.RIGHT );
+    wlTimeZone.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.TimeZone.Label" ) );
+    props.setLook( wlTimeZone );
+    FormData fdlTimeZone = new FormData();
+    fdlTimeZone.top = new FormAttachment( 0, margin );
+    fdlTimeZone.left = new FormAttachment( 0, 0 );
+    fdlTimeZone.right = new FormAttachment( middle, -margin );
+    wlTimeZone.setLayoutData( fdlTimeZone );
+    wTimeZone = new TextVar( transMeta, wDatesGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wTimeZone.addModifyListener( lsMod );
+    wTimeZone.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.TimeZone.Tooltip" ) );
+    props.setLook( wTimeZone );
+    FormData fdTimeZone = new FormData();
+    fdTimeZone.top = new FormAttachment( 0, margin );
+    fdTimeZone.left = new FormAttachment( middle, 0 );
+    fdTimeZone.right = new FormAttachment( 100, 0 );
+    wTimeZone.setLayoutData( fdTimeZone );
+
+    // Sorted output
+    wlSortedOutput = new Label( wDatesGroup, SWT.RIGHT );
+    wlSortedOutput.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.SortedOutput.Label" ) );
+    props.setLook( wlSortedOutput );
+    FormData fdlSortedOutput = new FormData();
+    fdlSortedOutput.top = new FormAttachment( wTimeZone, margin );
+    fdlSortedOutput.left = new FormAttachment( 0, 0 );
+    fdlSortedOutput.right = new FormAttachment( middle, -margin );
+    wlSortedOutput.setLayoutData( fdlSortedOutput );
+    wSortedOutput = new Button( wDatesGroup, SWT.CHECK );
+    wSortedOutput.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.SortedOutput.Tooltip" ) );
+    props.setLook( wSortedOutput );
+    FormData fdSortedOutput = new FormData();
+    fdSortedOutput.top = new FormAttachment( wTimeZone, margin );
+    fdSortedOutput.left = new FormAttachment( middle, 0 );
+    fdSortedOutput.right = new FormAttachment( 100, 0 );
+    wSortedOutput.setLayoutData( fdSortedOutput );
+    wSortedOutput.addSelectionListener( new SelectionAdapter() {
+      public void widgetSelected( SelectionEvent e ) {
+        getInput().setChanged();
+      }
+    } );
+
+    FormData fdDatesGroup = new FormData();
+    fdDatesGroup.left = new FormAttachment( 0, 0 );
+    fdDatesGroup.right = new FormAttachment( 100, 0 );
+    fdDatesGroup.top = new FormAttachment( wSplitGroup, margin );
+    wDatesGroup.setLayoutData( fdDatesGroup );
+
+    /*************************************************
+     * // CONNECTION GROUP
+     *************************************************/
+
+    wConnectionGroup = new Group( wAdvancedComp, SWT.SHADOW_ETCHED_IN );
+    wConnectionGroup.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ConnectionGroup.Label" ) );
+    FormLayout fconnectionLayout = new FormLayout();
+    fconnectionLayout.marginWidth = 3;
+    fconnectionLayout.marginHeight = 3;
+    wConnectionGroup.setLayout( fconnectionLayout );
+    props.setLook( wConnectionGroup );
+
+    // Connect timeout
+    wlConnectTimeout = new Label( wConnectionGroup, SWT.RIGHT );
+    wlConnectTimeout.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ConnectTimeout.Label" ) );
+    props.setLook( wlConnectTimeout );
+    FormData fdlConnectTimeout = new FormData();
+    fdlConnectTimeout.top = new FormAttachment( 0, margin );
+    fdlConnectTimeout.left = new FormAttachment( 0, 0 );
+    fdlConnectTimeout.right = new FormAttachment( middle, -margin );
+    wlConnectTimeout.setLayoutData( fdlConnectTimeout );
+    wConnectTimeout = new TextVar( transMeta, wConnectionGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wConnectTimeout.addModifyListener( lsMod );
+    wConnectTimeout.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.ConnectTimeout.Tooltip" ) );
+    props.setLook( wConnectTimeout );
+    FormData fdConnectTimeout = new FormData();
+    fdConnectTimeout.top = new FormAttachment( 0, margin );
+    fdConnectTimeout.left = new FormAttachment( middle, 0 );
+    fdConnectTimeout.right = new FormAttachment( 100, 0 );
+    wConnectTimeout.setLayoutData( fdConnectTimeout );
+
+    // Read timeout
+    wlReadTimeout = new Label( wConnectionGroup, SWT.RIGHT );
+    wlReadTimeout.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ReadTimeout.Label" ) );
+    props.setLook( wlReadTimeout );
+    FormData fdlReadTimeout = new FormData();
+    fdlReadTimeout.top = new FormAttachment( wConnectTimeout, margin );
+    fdlReadTimeout.left = new FormAttachment( 0, 0 );
+    fdlReadTimeout.right = new FormAttachment( middle, -margin );
+    wlReadTimeout.setLayoutData( fdlReadTimeout );
+    wReadTimeout = new TextVar( transMeta, wConnectionGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wReadTimeout.addModifyListener( lsMod );
+    wReadTimeout.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.ReadTimeout.Tooltip" ) );
+    props.setLook( wReadTimeout );
+    FormData fdReadTimeout = new FormData();
+    fdReadTimeout.top = new FormAttachment( wConnectTimeout, margin );
+    fdReadTimeout.left = new FormAttachment( middle, 0 );
+    fdReadTimeout.right = new FormAttachment( 100, 0 );
+    wReadTimeout.setLayoutData( fdReadTimeout );
+
+    // Max reports per company
+    wlMaxReportsPerCompany = new Label( wConnectionGroup, SWT.RIGHT );
+    wlMaxReportsPerCompany.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.MaxReportsPerCompany.Label" ) );
+    props.setLook( wlMaxReportsPerCompany );
+    FormData fdlMaxReportsPerCompany = new FormData();
+    fdlMaxReportsPerCompany.top = new FormAttachment( wReadTimeout, margin );
+    fdlMaxReportsPerCompany.left = new FormAttachment( 0, 0 );
+    fdlMaxReportsPerCompany.right = new FormAttachment( middle, -margin );
+    wlMaxReportsPerCompany.setLayoutData( fdlMaxReportsPerCompany );
+    wMaxReportsPerCompany = new TextVar( transMeta, wConnectionGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wMaxReportsPerCompany.addModifyListener( lsMod );
+    wMaxReportsPerCompany.setToolTipText(
+      BaseMessages.getString( PKG, "OmnitureInputDialog.MaxReportsPerCompany.Tooltip" ) );
+    props.setLook( wMaxReportsPerCompany );
+    FormData fdMaxReportsPerCompany = new FormData();
+    fdMaxReportsPerCompany.top = new FormAttachment( wReadTimeout, margin );
+    fdMaxReportsPerCompany.left = new FormAttachment( middle, 0 );
+    fdMaxReportsPerCompany.right = new FormAttachment( 100, 0 );
+    wMaxReportsPerCompany.setLayoutData( fdMaxReportsPerCompany );
+
+    // Circuit breaker
+    wlCircuitBreakerErrorRate = new Label( wConnectionGroup, SWT.RIGHT );
+    wlCircuitBreakerErrorRate.setText(
+      BaseMessages.getString( PKG, "OmnitureInputDialog.CircuitBreakerErrorRate.Label" ) );
+    props.setLook( wlCircuitBreakerErrorRate );
+    FormData fdlCircuitBreakerErrorRate = new FormData();
+    fdlCircuitBreakerErrorRate.top = new FormAttachment( wMaxReportsPerCompany, margin );
+    fdlCircuitBreakerErrorRate.left = new FormAttachment( 0, 0 );
+    fdlCircuitBreakerErrorRate.right = new FormAttachment( middle, -margin );
+    wlCircuitBreakerErrorRate.setLayoutData( fdlCircuitBreakerErrorRate );
+    wCircuitBreakerErrorRate = new TextVar( transMeta, wConnectionGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wCircuitBreakerErrorRate.addModifyListener( lsMod );
+    wCircuitBreakerErrorRate.setToolTipText(
+      BaseMessages.getString( PKG, "OmnitureInputDialog.CircuitBreakerErrorRate.Tooltip" ) );
+    props.setLook( wCircuitBreakerErrorRate );
+    FormData fdCircuitBreakerErrorRate = new FormData();
+    fdCircuitBreakerErrorRate.top = new FormAttachment( wMaxReportsPerCompany, margin );
+    fdCircuitBreakerErrorRate.left = new FormAttachment( middle, 0 );
+    fdCircuitBreakerErrorRate.right = new FormAttachment( 100, 0 );
+    wCircuitBreakerErrorRate.setLayoutData( fdCircuitBreakerErrorRate );
+
+    wlCircuitBreakerWait = new Label( wConnectionGroup, SWT.RIGHT );
+    wlCircuitBreakerWait.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.CircuitBreakerWait.Label" ) );
+    props.setLook( wlCircuitBreakerWait );
+    FormData fdlCircuitBreakerWait = new FormData();
+    fdlCircuitBreakerWait.top = new FormAttachment( wCircuitBreakerErrorRate, margin );
+    fdlCircuitBreakerWait.left = new FormAttachment( 0, 0 );
+    fdlCircuitBreakerWait.right = new FormAttachment( middle, -margin );
+    wlCircuitBreakerWait.setLayoutData( fdlCircuitBreakerWait );
+    wCircuitBreakerWait = new Button( wConnectionGroup, SWT.CHECK );
+    wCircuitBreakerWait.setToolTipText(
+      BaseMessages.getString( PKG, "OmnitureInputDialog.CircuitBreakerWait.Tooltip" ) );
+    props.setLook( wCircuitBreakerWait );
+    FormData fdCircuitBreakerWait = new FormData();
+    fdCircuitBreakerWait.top = new FormAttachment( wCircuitBreakerErrorRate, margin );
+    fdCircuitBreakerWait.left = new FormAttachment( middle, 0 );
+    fdCircuitBreakerWait.right = new FormAttachment( 100, 0 );
+    wCircuitBreakerWait.setLayoutData( fdCircuitBreakerWait );
+    wCircuitBreakerWait.addSelectionListener( new SelectionAdapter() {
+      public void widgetSelected( SelectionEvent e ) {
+        getInput().setChanged();
+      }
+    } );
+
+    // Deadlines
+    wlReportTimeout = new Label( wConnectionGroup, SWT.RIGHT );
+    wlReportTimeout.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ReportTimeout.Label" ) );
+    props.setLook( wlReportTimeout );
+    FormData fdlReportTimeout = new FormData();
+    fdlReportTimeout.top = new FormAttachment( wCircuitBreakerWait, margin );
+    fdlReportTimeout.left = new FormAttachment( 0, 0 );
+    fdlReportTimeout.right = new FormAttachment( middle, -margin );
+    wlReportTimeout.setLayoutData( fdlReportTimeout );
+    wReportTimeout = new TextVar( transMeta, wConnectionGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wReportTimeout.addModifyListener( lsMod );
+    wReportTimeout.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.ReportTimeout.Tooltip" ) );
+    props.setLook( wReportTimeout );
+    FormData fdReportTimeout = new FormData();
+    fdReportTimeout.top = new FormAttachment( wCircuitBreakerWait, margin );
+    fdReportTimeout.left = new FormAttachment( middle, 0 );
+    fdReportTimeout.right = new FormAttachment( 100, 0 );
+    wReportTimeout.setLayoutData( fdReportTimeout );
+
+    wlRequeueAfter = new Label( wConnectionGroup, SWT.RIGHT );
+    wlRequeueAfter.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.RequeueAfter.Label" ) );
+    props.setLook( wlRequeueAfter );
+    FormData fdlRequeueAfter = new FormData();
+    fdlRequeueAfter.top = new FormAttachment( wReportTimeout, margin );
+    fdlRequeueAfter.left = new FormAttachment( 0, 0 );
+    fdlRequeueAfter.right = new FormAttachment( middle, -margin );
+    wlRequeueAfter.setLayoutData( fdlRequeueAfter );
+    wRequeueAfter = new TextVar( transMeta, wConnectionGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wRequeueAfter.addModifyListener( lsMod );
+    wRequeueAfter.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.RequeueAfter.Tooltip" ) );
+    props.setLook( wRequeueAfter );
+    FormData fdRequeueAfter = new FormData();
+    fdRequeueAfter.top = new FormAttachment( wReportTimeout, margin );
+    fdRequeueAfter.left = new FormAttachment( middle, 0 );
+    fdRequeueAfter.right = new FormAttachment( 100, 0 );
+    wRequeueAfter.setLayoutData( fdRequeueAfter );
+
+    wlStepTimeout = new Label( wConnectionGroup, SWT.RIGHT );
+    wlStepTimeout.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.StepTimeout.Label" ) );
+    props.setLook( wlStepTimeout );
+    FormData fdlStepTimeout = new FormData();
+    fdlStepTimeout.top = new FormAttachment( wRequeueAfter, margin );
+    fdlStepTimeout.left = new FormAttachment( 0, 0 );
+    fdlStepTimeout.right = new FormAttachment( middle, -margin );
+    wlStepTimeout.setLayoutData( fdlStepTimeout );
+    wStepTimeout = new TextVar( transMeta, wConnectionGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wStepTimeout.addModifyListener( lsMod );
+    wStepTimeout.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.StepTimeout.Tooltip" ) );
+    props.setLook( wStepTimeout );
+    FormData fdStepTimeout = new FormData();
+    fdStepTimeout.top = new FormAttachment( wRequeueAfter, margin );
+    fdStepTimeout.left = new FormAttachment( middle, 0 );
+    fdStepTimeout.right = new FormAttachment( 100, 0 );
+    wStepTimeout.setLayoutData( fdStepTimeout );
+
+    FormData fdConnectionGroup = new FormData();
+    fdConnectionGroup.left = new FormAttachment( 0, 0 );
+    fdConnectionGroup.right = new FormAttachment( 100, 0 );
+    fdConnectionGroup.top = new FormAttachment( wDatesGroup, margin );
+    wConnectionGroup.setLayoutData( fdConnectionGroup );
+
+    /*************************************************
+     * // CHANGES GROUP
+     *************************************************/
+
+    wChangesGroup = new Group( wAdvancedComp, SWT.SHADOW_ETCHED_IN );
+    wChangesGroup.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ChangesGroup.Label" ) );
+    FormLayout fchangesLayout = new FormLayout();
+    fchangesLayout.marginWidth = 3;
+    fchangesLayout.marginHeight = 3;
+    wChangesGroup.setLayout( fchangesLayout );
+    props.setLook( wChangesGroup );
+
+    // Change index
+    wlChangeIndexFile = new Label( wChangesGroup, SWT.RIGHT );
+    wlChangeIndexFile.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ChangeIndexFile.Label" ) );
+    props.setLook( wlChangeIndexFile );
+    FormData fdlChangeIndexFile = new FormData();
+    fdlChangeIndexFile.top = new FormAttachment( 0, margin );
+    fdlChangeIndexFile.left = new FormAttachment( 0, 0 );
+    fdlChangeIndexFile.right = new FormAttachment( middle, -margin );
+    wlChangeIndexFile.setLayoutData( fdlChangeIndexFile );
+    wChangeIndexFile = new TextVar( transMeta, wChangesGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wChangeIndexFile.addModifyListener( lsMod );
+    wChangeIndexFile.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.ChangeIndexFile.Tooltip" ) );
+    props.setLook( wChangeIndexFile );
+    FormData fdChangeIndexFile = new FormData();
+    fdChangeIndexFile.top = new FormAttachment( 0, margin );
+    fdChangeIndexFile.left = new FormAttachment( middle, 0 );
+    fdChangeIndexFile.right = new FormAttachment( 100, 0 );
+    wChangeIndexFile.setLayoutData( fdChangeIndexFile );
+
+    wlOperationField = new Label( wChangesGroup, SWT.RIGHT );
+    wlOperationField.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.OperationField.Label" ) );
+    props.setLook( wlOperationField );
+    FormData fdlOperationField = new FormData();
+    fdlOperationField.top = new FormAttachment( wChangeIndexFile, margin );
+    fdlOperationField.left = new FormAttachment( 0, 0 );
+    fdlOperationField.right = new FormAttachment( middle, -margin );
+    wlOperationField.setLayoutData( fdlOperationField );
+    wOperationField = new TextVar( transMeta, wChangesGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wOperationField.addModifyListener( lsMod );
+    wOperationField.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.OperationField.Tooltip" ) );
+    props.setLook( wOperationField );
+    FormData fdOperationField = new FormData();
+    fdOperationField.top = new FormAttachment( wChangeIndexFile, margin );
+    fdOperationField.left = new FormAttachment( middle, 0 );
+    fdOperationField.right = new FormAttachment( 100, 0 );
+    wOperationField.setLayoutData( fdOperationField );
+
+    FormData fdChangesGroup = new FormData();
+    fdChangesGroup.left = new FormAttachment( 0, 0 );
+    fdChangesGroup.right = new FormAttachment( 100, 0 );
+    fdChangesGroup.top = new FormAttachment( wConnectionGroup, margin );
+    wChangesGroup.setLayoutData( fdChangesGroup );
+
+    /*************************************************
+     * // PARAMETERS GROUP
+     *************************************************/
+
+    wParametersGroup = new Group( wAdvancedComp, SWT.SHADOW_ETCHED_IN );
+    wParametersGroup.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ParametersGroup.Label" ) );
+    FormLayout fparametersLayout = new FormLayout();
+    fparametersLayout.marginWidth = 3;
+    fparametersLayout.marginHeight = 3;
+    wParametersGroup.setLayout( fparametersLayout );
+    props.setLook( wParametersGroup );
+
+    // Parameters from input
+    wlParametersFromInput = new Label( wParametersGroup, SWT.RIGHT );
+    wlParametersFromInput.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ParametersFromInput.Label" ) );
+    props.setLook( wlParametersFromInput );
+    FormData fdlParametersFromInput = new FormData();
+    fdlParametersFromInput.top = new FormAttachment( 0, margin );
+    fdlParametersFromInput.left = new FormAttachment( 0, 0 );
+    fdlParametersFromInput.right = new FormAttachment( middle, -margin );
+    wlParametersFromInput.setLayoutData( fdlParametersFromInput );
+    wParametersFromInput = new Button( wParametersGroup, SWT.CHECK );
+    wParametersFromInput.setToolTipText(
+      BaseMessages.getString( PKG, "OmnitureInputDialog.ParametersFromInput.Tooltip" ) );
+    props.setLook( wParametersFromInput );
+    FormData fdParametersFromInput = new FormData();
+    fdParametersFromInput.top = new FormAttachment( 0, margin );
+    fdParametersFromInput.left = new FormAttachment( middle, 0 );
+    fdParametersFromInput.right = new FormAttachment( 100, 0 );
+    wParametersFromInput.setLayoutData( fdParametersFromInput );
+    wParametersFromInput.addSelectionListener( new SelectionAdapter() {
+      public void widgetSelected( SelectionEvent e ) {
+        getInput().setChanged();
+      }
+    } );
+
+    wlSuiteField = new Label( wParametersGroup, SWT.RIGHT );
+    wlSuiteField.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.SuiteField.Label" ) );
+    props.setLook( wlSuiteField );
+    FormData fdlSuiteField = new FormData();
+    fdlSuiteField.top = new FormAttachment( wParametersFromInput, margin );
+    fdlSuiteField.left = new FormAttachment( 0, 0 );
+    fdlSuiteField.right = new FormAttachment( middle, -margin );
+    wlSuiteField.setLayoutData( fdlSuiteField );
+    wSuiteField = new TextVar( transMeta, wParametersGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wSuiteField.addModifyListener( lsMod );
+    wSuiteField.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.SuiteField.Tooltip" ) );
+    props.setLook( wSuiteField );
+    FormData fdSuiteField = new FormData();
+    fdSuiteField.top = new FormAttachment( wParametersFromInput, margin );
+    fdSuiteField.left = new FormAttachment( middle, 0 );
+    fdSuiteField.right = new FormAttachment( 100, 0 );
+    wSuiteField.setLayoutData( fdSuiteField );
+
+    wlStartDateField = new Label( wParametersGroup, SWT.RIGHT );
+    wlStartDateField.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.StartDateField.Label" ) );
+    props.setLook( wlStartDateField );
+    FormData fdlStartDateField = new FormData();
+    fdlStartDateField.top = new FormAttachment( wSuiteField, margin );
+    fdlStartDateField.left = new FormAttachment( 0, 0 );
+    fdlStartDateField.right = new FormAttachment( middle, -margin );
+    wlStartDateField.setLayoutData( fdlStartDateField );
+    wStartDateField = new TextVar( transMeta, wParametersGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wStartDateField.addModifyListener( lsMod );
+    wStartDateField.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.StartDateField.Tooltip" ) );
+    props.setLook( wStartDateField );
+    FormData fdStartDateField = new FormData();
+    fdStartDateField.top = new FormAttachment( wSuiteField, margin );
+    fdStartDateField.left = new FormAttachment( middle, 0 );
+    fdStartDateField.right = new FormAttachment( 100, 0 );
+    wStartDateField.setLayoutData( fdStartDateField );
+
+    wlEndDateField = new Label( wParametersGroup, SWT.RIGHT );
+    wlEndDateField.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.EndDateField.Label" ) );
+    props.setLook( wlEndDateField );
+    FormData fdlEndDateField = new FormData();
+    fdlEndDateField.top = new FormAttachment( wStartDateField, margin );
+    fdlEndDateField.left = new FormAttachment( 0, 0 );
+    fdlEndDateField.right = new FormAttachment( middle, -margin );
+    wlEndDateField.setLayoutData( fdlEndDateField );
+    wEndDateField = new TextVar( transMeta, wParametersGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wEndDateField.addModifyListener( lsMod );
+    wEndDateField.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.EndDateField.Tooltip" ) );
+    props.setLook( wEndDateField );
+    FormData fdEndDateField = new FormData();
+    fdEndDateField.top = new FormAttachment( wStartDateField, margin );
+    fdEndDateField.left = new FormAttachment( middle, 0 );
+    fdEndDateField.right = new FormAttachment( 100, 0 );
+    wEndDateField.setLayoutData( fdEndDateField );
+
+    wlSegmentsField = new Label( wParametersGroup, SWT.RIGHT );
+    wlSegmentsField.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.SegmentsField.Label" ) );
+    props.setLook( wlSegmentsField );
+    FormData fdlSegmentsField = new FormData();
+    fdlSegmentsField.top = new FormAttachment( wEndDateField, margin );
+    fdlSegmentsField.left = new FormAttachment( 0, 0 );
+    fdlSegmentsField.right = new FormAttachment( middle, -margin );
+    wlSegmentsField.setLayoutData( fdlSegmentsField );
+    wSegmentsField = new TextVar( transMeta, wParametersGroup, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wSegmentsField.addModifyListener( lsMod );
+    wSegmentsField.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.SegmentsField.Tooltip" ) );
+    props.setLook( wSegmentsField );
+    FormData fdSegmentsField = new FormData();
+    fdSegmentsField.top = new FormAttachment( wEndDateField, margin );
+    fdSegmentsField.left = new FormAttachment( middle, 0 );
+    fdSegmentsField.right = new FormAttachment( 100, 0 );
+    wSegmentsField.setLayoutData( fdSegmentsField );
+
+    FormData fdParametersGroup = new FormData();
+    fdParametersGroup.left = new FormAttachment( 0, 0 );
+    fdParametersGroup.right = new FormAttachment( 100, 0 );
+    fdParametersGroup.top = new FormAttachment( wChangesGroup, margin );
+    wParametersGroup.setLayoutData( fdParametersGroup );
+
+    // ////////////////////////
+    // START OF REPORTS TAB ///
+    // ////////////////////////
+
+    wReportsTab = new CTabItem( wTabFolder, SWT.NONE );
+    wReportsTab.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.Tab.Reports.Label" ) );
+
+    FormLayout reportsLayout = new FormLayout();
+    reportsLayout.marginWidth = Const.FORM_MARGIN;
+    reportsLayout.marginHeight = Const.FORM_MARGIN;
+
+    wReportsComp = new Composite( wTabFolder, SWT.NONE );
+    wReportsComp.setLayout( reportsLayout );
+    props.setLook( wReportsComp );
+
+    wlReportNameField = new Label( wReportsComp, SWT.RIGHT );
+    wlReportNameField.setText( BaseMessages.getString( PKG, "OmnitureInputDialog.ReportNameField.Label" ) );
+    props.setLook( wlReportNameField );
+    FormData fdlReportNameField = new FormData();
+    fdlReportNameField.top = new FormAttachment( 0, margin );
+    fdlReportNameField.left = new FormAttachment( 0, 0 );
+    fdlReportNameField.right = new FormAttachment( middle, -margin );
+    wlReportNameField.setLayoutData( fdlReportNameField );
+    wReportNameField = new TextVar( transMeta, wReportsComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wReportNameField.addModifyListener( lsMod );
+    wReportNameField.setToolTipText( BaseMessages.getString( PKG, "OmnitureInputDialog.ReportNameField.Tooltip" ) );
+    props.setLook( wReportNameField );
+    FormData fdReportNameField = new FormData();
+    fdReportNameField.top = new FormAttachment( 0, margin );
+    fdReportNameField.left = new FormAttachment( middle, 0 );
+    fdReportNameField.right = new FormAttachment( 100, 0 );
+    wReportNameField.setLayoutData( fdReportNameField );
+
+    ColumnInfo[] reportColumns =
+      new ColumnInfo[] {
+        new ColumnInfo(
+          BaseMessages.getString( PKG, "OmnitureInputDialog.ReportsTable.Name.Column" ),
+          ColumnInfo.COLUMN_TYPE_TEXT, false ),
+        new ColumnInfo(
+          BaseMessages.getString( PKG, "OmnitureInputDialog.ReportsTable.Elements.Column" ),
+          ColumnInfo.COLUMN_TYPE_TEXT, false ),
+        new ColumnInfo(
+          BaseMessages.getString( PKG, "OmnitureInputDialog.ReportsTable.Metrics.Column" ),
+          ColumnInfo.COLUMN_TYPE_TEXT, false ),
+        new ColumnInfo(
+          BaseMessages.getString( PKG, "OmnitureInputDialog.ReportsTable.Segments.Column" ),
+          ColumnInfo.COLUMN_TYPE_TEXT, false ),
+        new ColumnInfo(
+          BaseMessages.getString( PKG, "OmnitureInputDialog.ReportsTable.DateGranularity.Column" ),
+          ColumnInfo.COLUMN_TYPE_TEXT, false ),
+        new ColumnInfo(
+          BaseMessages.getString( PKG, "OmnitureInputDialog.ReportsTable.TargetStep.Column" ),
+          ColumnInfo.COLUMN_TYPE_CCOMBO, transMeta.getNextStepNames( stepMeta ), false )
+      };
+    reportColumns[1].setToolTip( BaseMessages.getString( PKG, "OmnitureInputDialog.ReportsTable.Elements.Column.Tooltip" ) );
+    reportColumns[5].setToolTip( BaseMessages.getString( PKG, "OmnitureInputDialog.ReportsTable.TargetStep.Column.Tooltip" ) );
+    wReports =
+      new TableView( transMeta, wReportsComp, SWT.FULL_SELECTION | SWT.MULTI, reportColumns,
+        input.getReportDefinitions().length, lsMod, props );
+
+    FormData fdReports = new FormData();
+    fdReports.left = new FormAttachment( 0, 0 );
+    fdReports.top = new FormAttachment( wReportNameField, margin );
+    fdReports.right = new FormAttachment( 100, 0 );
+    fdReports.bottom = new FormAttachment( 100, 0 );
+    wReports.setLayoutData( fdReports );
+
+    FormData fdReportsComp = new FormData();
+    fdReportsComp.left = new FormAttachment( 0, 0 );
+    fdReportsComp.top = new FormAttachment( 0, 0 );
+    fdReportsComp.right = new FormAttachment( 100, 0 );
+    fdReportsComp.bottom = new FormAttachment( 100, 0 );
+    wReportsComp.setLayoutData( fdReportsComp );
+
+    wReportsComp.layout();
+    wReportsTab.setControl( wReportsComp );
+
     // ////////////////////////
     // START OF FIELDS TAB ///
     // ////////////////////////
@@ -700,16 +1526,7 @@ private void getReportSuiteIdsList() {
       try {
 	      OmnitureInputMeta meta = new OmnitureInputMeta();
 	      getInfo( meta );
-	      // get real values
-	      String realUsername = transMeta.environmentSubstitute( meta.getUserName() );
-	      String realSecret = transMeta.environmentSubstitute( meta.getSecret() );
-		  AnalyticsClient client = new AnalyticsClientBuilder()
-				  .setEndpoint("api2.omniture.com")
-				  .authenticateWithSecret(realUsername, realSecret)
-				  .build();
-		  ReportSuiteMethods reportSuiteMethods = new ReportSuiteMethods(client);
-		  CompanyReportSuites reportSuiteIds = new CompanyReportSuites();
-		  reportSuiteIds = reportSuiteMethods.getReportSuites();
+		  CompanyReportSuites reportSuiteIds = getReportSuites( meta );
 		  String[] reportsuiteids = new String[reportSuiteIds.getReportSuites().size()];
 		  for (int i = 0; i < reportSuiteIds.getReportSuites().size(); i++) {
 			  reportsuiteids[i] = reportSuiteIds.getReportSuites().get(i).getRsid();
@@ -733,6 +1550,16 @@ private void getReportSuiteIdsList() {
     }
   }
   
+  private CompanyReportSuites getReportSuites( OmnitureInputMeta meta ) throws IOException {
+    OmnitureTransport transport = OmnitureHttpTransport.forMeta( meta, transMeta );
+    try {
+      return transport.callMethod( "Company.GetReportSuites",
+        JsonUtil.o( "types", JsonUtil.a( "standard" ) ), CompanyReportSuites.class );
+    } finally {
+      transport.close();
+    }
+  }
+
   private void testConnection() {
 
 	    boolean successConnection = true;
@@ -741,15 +1568,7 @@ private void getReportSuiteIdsList() {
 	    try {
 	      OmnitureInputMeta meta = new OmnitureInputMeta();
 	      getInfo( meta );
-	      // get real values
-	      String realUsername = transMeta.environmentSubstitute( meta.getUserName() );
-	      String realSecret = transMeta.environmentSubstitute( meta.getSecret() );
-		  AnalyticsClient client = new AnalyticsClientBuilder()
-				  .setEndpoint("api2.omniture.com")
-				  .authenticateWithSecret(realUsername, realSecret)
-				  .build();
-		  ReportSuiteMethods reportSuiteMethods = new ReportSuiteMethods(client);
-		  reportSuiteIds = reportSuiteMethods.getReportSuites();
+		  reportSuiteIds = getReportSuites( meta );
 		  if(reportSuiteIds.getReportSuites().size() < 1){
 			  successConnection = false;  
 		  }
@@ -789,21 +1608,64 @@ private void getReportSuiteIdsList() {
 	      getInfo( meta );
 	      // clear the current fields grid
 	      wFields.removeAll();
+	      // the reports of the definitions replace the report of the step, all of them share the output fields
+	      List<OmnitureReportDefinition> definitions = new ArrayList<OmnitureReportDefinition>();
+	      if ( meta.getReportDefinitions().length == 0 ) {
+	        definitions.add( null );
+	      }
+	      definitions.addAll( Arrays.asList( meta.getReportDefinitions() ) );
+	      List<OmnitureInputField> fields = new ArrayList<OmnitureInputField>();
+	      List<String> names = new ArrayList<String>();
+	      for ( OmnitureReportDefinition definition : definitions ) {
+	        for ( OmnitureInputField field : getReportFields( meta, definition ) ) {
+	          if ( !names.contains( field.getName() ) ) {
+	            names.add( field.getName() );
+	            fields.add( field );
+	          }
+	        }
+	      }
+	      getTableView().table.setItemCount( fields.size() );
+	      for (int j = 0; j < fields.size(); j++) 
+	      {
+	        OmnitureInputField field = fields.get( j );
+	        TableItem item = getTableView().table.getItem( j );
+	        item.setText( 1, field.getName() );
+	        item.setText( 2, field.getTypeDesc() );
+	        item.setText( 3, field.getFormat() );
+	        if ( field.getPrecision() >= 0 ) {
+	          item.setText( 5, Integer.toString( field.getPrecision() ) );
+	        }
+	      }
+	      wFields.removeEmptyRows();
+	      wFields.setRowNums();
+	      wFields.optWidth( true );
+	      getInput().setChanged();
+	    } catch ( Exception e ) {
+	      new ErrorDialog(
+	        shell, BaseMessages.getString( PKG, "OmnitureInputMeta.ErrorRetrieveData.DialogTitle" ), BaseMessages
+	          .getString( PKG, "OmnitureInputMeta.ErrorRetrieveData.DialogMessage" ), e );
+	  }
+  }
+ 
+  /**
+   * Fetches the report of a definition, or of the step for none, and lists its fields.
+   */
+  private List<OmnitureInputField> getReportFields( OmnitureInputMeta meta, OmnitureReportDefinition definition )
+    throws Exception {
 	      // get real values
 	      String realUsername = transMeta.environmentSubstitute( meta.getUserName() );
-	      String realSecret = transMeta.environmentSubstitute( meta.getSecret() );
 	      String realReportSuiteId = transMeta.environmentSubstitute( meta.getReportSuiteId() );
 	      String realStartDate = transMeta.environmentSubstitute( meta.getStartDate() );
 	      String realEndDate = transMeta.environmentSubstitute( meta.getEndDate() );
-	      String realDateGranularity = transMeta.environmentSubstitute( meta.getDateGranularity() );
-	      String realElements = transMeta.environmentSubstitute( meta.getElements() );
-	      String realMetrics = transMeta.environmentSubstitute( meta.getMetrics() );
-	      String realSegments = transMeta.environmentSubstitute( meta.getSegments() );
+	      String realDateGranularity = transMeta.environmentSubstitute( definition == null
+	        || Const.isEmpty( definition.getDateGranularity() ) ? meta.getDateGranularity() : definition.getDateGranularity() );
+	      String realElements = transMeta.environmentSubstitute( definition == null
+	        || Const.isEmpty( definition.getElements() ) ? meta.getElements() : definition.getElements() );
+	      String realMetrics = transMeta.environmentSubstitute( definition == null
+	        || Const.isEmpty( definition.getMetrics() ) ? meta.getMetrics() : definition.getMetrics() );
+	      String realSegments = transMeta.environmentSubstitute( definition == null
+	        || Const.isEmpty( definition.getSegments() ) ? meta.getSegments() : definition.getSegments() );
 			
-		  AnalyticsClient client = new AnalyticsClientBuilder()
-				  .setEndpoint("api2.omniture.com")
-				  .authenticateWithSecret(realUsername, realSecret)
-				  .build();
 		  ReportDescription desc = new ReportDescription();
 		  desc.setReportSuiteID(realReportSuiteId);
 		  desc.setDateFrom(realStartDate); 
@@ -838,51 +1700,20 @@ private void getReportSuiteIdsList() {
 				desc.setDateGranularity(ReportDescriptionDateGranularity.valueOf(realDateGranularity));
 		    }
 			
-		  ReportMethods reportMethods = new ReportMethods(client);
-		  int reportId = 0;
-		  ReportResponse response = null;
+		  OmnitureTransport transport = OmnitureHttpTransport.forMeta( meta, transMeta );
+		  String response;
 		  try {
-		  reportId = reportMethods.queue(desc);
-		  while (response == null) {
-		  try {
-		      response = reportMethods.get(reportId);
-		  } catch (ApiException e) {
-		      if ("report_not_ready".equals(e.getError())) {
-		          System.err.println("Report not ready yet.");
-		          try {
-		  			Thread.sleep(3000);
-		  		} catch (InterruptedException e1) {
-		  			// TODO Auto-generated catch block
-		  			e1.printStackTrace();
-		  		}
-		          continue;
-		      }
-		      throw e;
-		  }
-		  }
-		  } catch (IOException i) {
-		  System.err.println("Report queuing error.");
+		    OmnitureReportSession session = new OmnitureReportSession( transport, realUsername, null, null, null, 0L, null, 0,
+		      OmnitureReportWatchdog.forMeta( meta, transMeta, null ) );
+		    response = new OmnitureReportJob( session, desc, 0, 0 ).fetch();
+		  } finally {
+		    transport.close();
 		  }
 		  /* Get the report */
-		  Report report = response.getReport();
-		  List<String> headerNames = report.getHeaders();
-	      getTableView().table.setItemCount( headerNames.size() );
-	      for (int j = 0; j < headerNames.size(); j++) 
-	      {
-	        TableItem item = getTableView().table.getItem( j );
-	        item.setText( 1, headerNames.get(j));
-	      }
-	      wFields.removeEmptyRows();
-	      wFields.setRowNums();
-	      wFields.optWidth( true );
-	      getInput().setChanged();
-	    } catch ( Exception e ) {
-	      new ErrorDialog(
-	        shell, BaseMessages.getString( PKG, "OmnitureInputMeta.ErrorRetrieveData.DialogTitle" ), BaseMessages
-	          .getString( PKG, "OmnitureInputMeta.ErrorRetrieveData.DialogMessage" ), e );
-	  }
+		  Report report = JsonUtil.GSON.fromJson( response, ReportResponse.class ).getReport();
+		  return OmnitureInputField.fromReport( report );
   }
- 
+
   // Preview the data
   private void getPreview() {
     try {
@@ -945,6 +1776,50 @@ private void getInfo( OmnitureInputMeta in ) {
     in.setElements( wQuElements.getText() );
     in.setMetrics( wQuMetrics.getText() );
     in.setSegments( wQuSegments.getText() );
+    in.setMemoryLimit( wMemoryLimit.getText() );
+    in.setConversionThreads( wConversionThreads.getText() );
+    in.setDownloadToFile( wDownloadToFile.getSelection() );
+    in.setSpoolDirectory( wSpoolDirectory.getText() );
+    in.setReplaySpool( wReplaySpool.getSelection() );
+    in.setMaxMetricsPerReport( wMaxMetrics.getText() );
+    in.setFanOutValuesPerReport( wFanOutValues.getText() );
+    in.setSegmentFanOut( wSegmentFanOut.getSelection() );
+    in.setSegmentField( wSegmentField.getText() );
+    in.setChunkTargetSize( wChunkTargetSize.getText() );
+    in.setTimeZone( wTimeZone.getText() );
+    in.setSortedOutput( wSortedOutput.getSelection() );
+    in.setConnectTimeout( wConnectTimeout.getText() );
+    in.setReadTimeout( wReadTimeout.getText() );
+    in.setMaxReportsPerCompany( wMaxReportsPerCompany.getText() );
+    in.setCircuitBreakerErrorRate( wCircuitBreakerErrorRate.getText() );
+    in.setCircuitBreakerWait( wCircuitBreakerWait.getSelection() );
+    in.setReportTimeout( wReportTimeout.getText() );
+    in.setRequeueAfter( wRequeueAfter.getText() );
+    in.setStepTimeout( wStepTimeout.getText() );
+    in.setChangeIndexFile( wChangeIndexFile.getText() );
+    in.setOperationField( wOperationField.getText() );
+    in.setParametersFromInput( wParametersFromInput.getSelection() );
+    in.setSuiteField( wSuiteField.getText() );
+    in.setStartDateField( wStartDateField.getText() );
+    in.setEndDateField( wEndDateField.getText() );
+    in.setSegmentsField( wSegmentsField.getText() );
+    in.setReportNameField( wReportNameField.getText() );
+
+    int nrReports = wReports.nrNonEmpty();
+    OmnitureReportDefinition[] definitions = new OmnitureReportDefinition[nrReports];
+    for ( int i = 0; i < nrReports; i++ ) {
+      TableItem item = wReports.getNonEmpty( i );
+      OmnitureReportDefinition definition = new OmnitureReportDefinition();
+      definition.setName( item.getText( 1 ) );
+      definition.setElements( item.getText( 2 ) );
+      definition.setMetrics( item.getText( 3 ) );
+      definition.setSegments( item.getText( 4 ) );
+      definition.setDateGranularity( item.getText( 5 ) );
+      definition.setTargetStepname( item.getText( 6 ) );
+      definition.setTargetStep( transMeta.findStep( item.getText( 6 ) ) );
+      definitions[i] = definition;
+    }
+    in.setReportDefinitions( definitions );
 
     int nrFields = getTableView().nrNonEmpty();
 
@@ -984,6 +1859,49 @@ private void getInfo( OmnitureInputMeta in ) {
     wQuElements.setText( Const.NVL( in.getElements(), "" ) );
     wQuMetrics.setText( Const.NVL( in.getMetrics(), "" ) );
     wQuSegments.setText( Const.NVL( in.getSegments(), "" ) );
+    wMemoryLimit.setText( Const.NVL( in.getMemoryLimit(), "" ) );
+    wConversionThreads.setText( Const.NVL( in.getConversionThreads(), "" ) );
+    wDownloadToFile.setSelection( in.isDownloadToFile() );
+    wSpoolDirectory.setText( Const.NVL( in.getSpoolDirectory(), "" ) );
+    wReplaySpool.setSelection( in.isReplaySpool() );
+    wMaxMetrics.setText( Const.NVL( in.getMaxMetricsPerReport(), "" ) );
+    wFanOutValues.setText( Const.NVL( in.getFanOutValuesPerReport(), "" ) );
+    wSegmentFanOut.setSelection( in.isSegmentFanOut() );
+    wSegmentField.setText( Const.NVL( in.getSegmentField(), "" ) );
+    wChunkTargetSize.setText( Const.NVL( in.getChunkTargetSize(), "" ) );
+    wTimeZone.setText( Const.NVL( in.getTimeZone(), "" ) );
+    wSortedOutput.setSelection( in.isSortedOutput() );
+    wConnectTimeout.setText( Const.NVL( in.getConnectTimeout(), "" ) );
+    wReadTimeout.setText( Const.NVL( in.getReadTimeout(), "" ) );
+    wMaxReportsPerCompany.setText( Const.NVL( in.getMaxReportsPerCompany(), "" ) );
+    wCircuitBreakerErrorRate.setText( Const.NVL( in.getCircuitBreakerErrorRate(), "" ) );
+    wCircuitBreakerWait.setSelection( in.isCircuitBreakerWait() );
+    wReportTimeout.setText( Const.NVL( in.getReportTimeout(), "" ) );
+    wRequeueAfter.setText( Const.NVL( in.getRequeueAfter(), "" ) );
+    wStepTimeout.setText( Const.NVL( in.getStepTimeout(), "" ) );
+    wChangeIndexFile.setText( Const.NVL( in.getChangeIndexFile(), "" ) );
+    wOperationField.setText( Const.NVL( in.getOperationField(), "" ) );
+    wParametersFromInput.setSelection( in.isParametersFromInput() );
+    wSuiteField.setText( Const.NVL( in.getSuiteField(), "" ) );
+    wStartDateField.setText( Const.NVL( in.getStartDateField(), "" ) );
+    wEndDateField.setText( Const.NVL( in.getEndDateField(), "" ) );
+    wSegmentsField.setText( Const.NVL( in.getSegmentsField(), "" ) );
+    wReportNameField.setText( Const.NVL( in.getReportNameField(), "" ) );
+
+    for ( int i = 0; i < in.getReportDefinitions().length; i++ ) {
+      OmnitureReportDefinition definition = in.getReportDefinitions()[i];
+      TableItem item = wReports.table.getItem( i );
+      item.setText( 1, Const.NVL( definition.getName(), "" ) );
+      item.setText( 2, Const.NVL( definition.getElements(), "" ) );
+      item.setText( 3, Const.NVL( definition.getMetrics(), "" ) );
+      item.setText( 4, Const.NVL( definition.getSegments(), "" ) );
+      item.setText( 5, Const.NVL( definition.getDateGranularity(), "" ) );
+      item.setText( 6, definition.getTargetStep() != null
+        ? definition.getTargetStep().getName() : Const.NVL( definition.getTargetStepname(), "" ) );
+    }
+    wReports.removeEmptyRows();
+    wReports.setRowNums();
+    wReports.optWidth( true );
     
     if ( log.isDebug() ) {
       logDebug( BaseMessages.getString( PKG, "OmnitureInputDialog.Log.GettingFieldsInfo" ) );